@@ -0,0 +1,58 @@
+package com.isharec.framework.base.persistence;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.MappedSuperclass;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * 实体的创建和更新时间, 主键由子类定义生成方式.
+ */
+@MappedSuperclass
+public abstract class AbstractEntity<T> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Column(name = "create_at", updatable = false)
+	@Temporal(TemporalType.TIMESTAMP)
+	public Date createAt;
+
+	@Column(name = "update_at")
+	@Temporal(TemporalType.TIMESTAMP)
+	public Date updateAt;
+
+	public abstract Long getId();
+
+	public abstract void setId(Long id);
+
+	public Date getCreateAt() {
+		return createAt;
+	}
+
+	public void setCreateAt(Date createAt) {
+		this.createAt = createAt;
+	}
+
+	public Date getUpdateAt() {
+		return updateAt;
+	}
+
+	public void setUpdateAt(Date updateAt) {
+		this.updateAt = updateAt;
+	}
+
+	@PrePersist
+	public void beforeInsert() {
+		createAt = updateAt = new Date();
+	}
+
+	@PreUpdate
+	public void beforeUpdate() {
+		updateAt = new Date();
+	}
+}
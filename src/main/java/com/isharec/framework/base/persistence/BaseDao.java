@@ -1,36 +1,49 @@
 package com.isharec.framework.base.persistence;
 
 import java.io.Serializable;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import javax.persistence.Id;
-import javax.persistence.PrePersist;
-import javax.persistence.PreUpdate;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.QueryWrapperFilter;
 import org.apache.lucene.search.Sort;
+import org.hibernate.CacheMode;
 import org.hibernate.Criteria;
+import org.hibernate.Filter;
+import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.SQLQuery;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projection;
 import org.hibernate.criterion.Projections;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.hql.spi.ParameterTranslations;
+import org.hibernate.hql.spi.QueryTranslator;
 import org.hibernate.internal.CriteriaImpl;
+import org.hibernate.internal.util.SerializationHelper;
 import org.hibernate.search.FullTextQuery;
 import org.hibernate.search.FullTextSession;
 import org.hibernate.search.Search;
@@ -39,22 +52,70 @@ import org.hibernate.search.query.DatabaseRetrievalMethod;
 import org.hibernate.search.query.ObjectLookupMethod;
 import org.hibernate.transform.ResultTransformer;
 import org.hibernate.transform.Transformers;
+import org.hibernate.type.SerializationException;
+import org.hibernate.type.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.isharec.framework.base.config.Global;
 import com.isharec.framework.utils.ReflectionsUtils;
 import com.isharec.framework.utils.StringUtils;
 
 public class BaseDao<T> {
+	private static Logger logger = LoggerFactory.getLogger(BaseDao.class);
+
+	// 分页总数缓存时间(秒), 0表示不缓存
+	private static final CountCache countCache = new CountCache(getIntConfig(
+			"page.countCacheSeconds", 0));
+	// 估计行数小于这个值时仍精确查询总数
+	private static final long ESTIMATE_COUNT_THRESHOLD = getIntConfig(
+			"page.estimateCountThreshold", 10000);
+
+	// 并行查询总数的线程, 每个线程占用一个数据库连接, 应远小于连接池的最大连接数;
+	// 都在使用时不在调用线程中另开连接, 而是在当前Session中查询
+	private static final ExecutorService countExecutor = createCountExecutor(getIntConfig(
+			"page.parallelCountThreads", 4));
+	// 等待并行查询总数的时间(毫秒), 超时后取消并在当前Session中查询
+	private static final long PARALLEL_COUNT_TIMEOUT = getIntConfig(
+			"page.parallelCountTimeout", 10000);
+
+	// 逐行处理时清空Session的间隔
+	private static final int SCROLL_CLEAR_INTERVAL = 1000;
+	// 非MySQL数据库逐行处理时每次读取的行数
+	private static final int SCROLL_FETCH_SIZE = 1000;
+	// 没有配置hibernate.jdbc.batch_size时批量保存的批次大小
+	private static final int DEFAULT_BATCH_SIZE = 50;
 
 	@Autowired
 	private SessionFactory sessionFactory;
 
 	private Class<?> entityClass;
 
+	private String[] entityQuerySpaces;
+
 	public BaseDao() {
 		entityClass = ReflectionsUtils.getClassGenricType(getClass());
 	}
 
+	private static int getIntConfig(String key, int defaultValue) {
+		String value = Global.getConfig(key);
+		return StringUtils.isNumeric(value) ? Integer.parseInt(value)
+				: defaultValue;
+	}
+
+	private static ExecutorService createCountExecutor(int threads) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+				60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+				new ThreadFactoryBuilder().setNameFormat("page-count-%d")
+						.setDaemon(true).build());
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
 	public Session getSession() {
 		return sessionFactory.getCurrentSession();
 	}
@@ -98,36 +159,8 @@ public class BaseDao<T> {
 	 * @param parameter
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	public <E> Page<E> find(Page<E> page, String qlString, Parameter parameter) {
-		// get count
-		if (!page.isDisabled() && !page.isNotCount()) {
-			String countQlString = "select count(*) "
-					+ removeSelect(removeOrders(qlString));
-			Query query = createQuery(countQlString, parameter);
-			List<Object> list = query.list();
-			if (list.size() > 0) {
-				page.setCount(Long.valueOf(list.get(0).toString()));
-			} else {
-				page.setCount(list.size());
-			}
-			if (page.getCount() < 1) {
-				return page;
-			}
-		}
-		// order by
-		String ql = qlString;
-		if (StringUtils.isNotBlank(page.getOrderBy())) {
-			ql += " order by " + page.getOrderBy();
-		}
-		Query query = createQuery(ql, parameter);
-		// set page
-		if (!page.isDisabled()) {
-			query.setFirstResult(page.getFirstResult());
-			query.setMaxResults(page.getMaxResults());
-		}
-		page.setList(query.list());
-		return page;
+		return find(page, qlString, parameter, false, null);
 	}
 
 	/**
@@ -233,59 +266,74 @@ public class BaseDao<T> {
 	 * @param entity
 	 */
 	public void save(T entity) {
-		try {
-			// 获取实体编号
-			Object id = null;
-			for (Method method : entity.getClass().getMethods()) {
-				Id idAnn = method.getAnnotation(Id.class);
-				if (idAnn != null) {
-					id = method.invoke(entity);
-					break;
-				}
-			}
-			// 插入前执行方法
-			if (id == null || StringUtils.isBlank(id.toString())) {
-				for (Method method : entity.getClass().getMethods()) {
-					PrePersist pp = method.getAnnotation(PrePersist.class);
-					if (pp != null) {
-						method.invoke(entity);
-						break;
-					}
-				}
-			}
-			// 更新前执行方法
-			else {
-				for (Method method : entity.getClass().getMethods()) {
-					PreUpdate pu = method.getAnnotation(PreUpdate.class);
-					if (pu != null) {
-						method.invoke(entity);
-						break;
-					}
-				}
-			}
-		} catch (IllegalArgumentException e) {
-			e.printStackTrace();
-		} catch (IllegalAccessException e) {
-			e.printStackTrace();
-		} catch (InvocationTargetException e) {
-			e.printStackTrace();
-		}
+		beforeSave(entity);
 		getSession().saveOrUpdate(entity);
+		invalidateCounts(getEntityQuerySpaces());
 	}
 
 	/**
-	 * 保存实体列表
+	 * 执行实体的插入前或更新前方法
+	 * 
+	 * @param entity
+	 */
+	private void beforeSave(T entity) {
+		EntityMetadata metadata = EntityMetadata.forEntity(entity);
+		if (metadata.isNew(entity)) {
+			metadata.prePersist(entity);
+		} else {
+			metadata.preUpdate(entity);
+		}
+	}
+
+	/**
+	 * 保存实体列表，语句在flush时按hibernate.jdbc.batch_size成批执行
 	 * 
 	 * @param entityList
 	 */
 	public void save(List<T> entityList) {
+		Session session = getSession();
 		for (T entity : entityList) {
-			save(entity);
+			beforeSave(entity);
+			session.saveOrUpdate(entity);
 		}
+		invalidateCounts(getEntityQuerySpaces());
+	}
+
+	/**
+	 * 批量保存，用于导入等大量数据的写入。每hibernate.jdbc.batch_size个实体flush并清空一次Session，
+	 * 语句成批执行，内存占用与数量无关。保存后实体（包括Session中原有的实体）不再受Session管理。
+	 * 自增主键的实体插入时不能成批执行，需要批量插入的实体可继承PooledIdEntity
+	 * 
+	 * @param entities
+	 * @return 保存的实体数
+	 */
+	public int saveBatch(Collection<T> entities) {
+		Session session = getSession();
+		int batchSize = getJdbcBatchSize();
+		int count = 0;
+		for (T entity : entities) {
+			beforeSave(entity);
+			session.saveOrUpdate(entity);
+			if (++count % batchSize == 0) {
+				session.flush();
+				session.clear();
+			}
+		}
+		session.flush();
+		session.clear();
+		invalidateCounts(getEntityQuerySpaces());
+		return count;
+	}
+
+	private int getJdbcBatchSize() {
+		int batchSize = getSessionFactoryImplementor().getSettings()
+				.getJdbcBatchSize();
+		return batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
 	}
 
 	public void update(T entity) {
 		getSession().update(entity);
+		invalidateCounts(getEntityQuerySpaces());
 	}
 
 	/**
@@ -306,7 +354,9 @@ public class BaseDao<T> {
 	 * @return
 	 */
 	public int update(String qlString, Parameter parameter) {
-		return createQuery(qlString, parameter).executeUpdate();
+		int result = createQuery(qlString, parameter).executeUpdate();
+		invalidateCounts(getQuerySpaces(qlString));
+		return result;
 	}
 
 	/**
@@ -322,6 +372,7 @@ public class BaseDao<T> {
 
 	public void delete(T entity) {
 		getSession().delete(entity);
+		invalidateCounts(getEntityQuerySpaces());
 	}
 
 	/**
@@ -345,7 +396,12 @@ public class BaseDao<T> {
 	 * @return
 	 */
 	public Query createQuery(String qlString, Parameter parameter) {
-		Query query = getSession().createQuery(qlString);
+		return createQuery(getSession(), qlString, parameter);
+	}
+
+	private Query createQuery(Session session, String qlString,
+			Parameter parameter) {
+		Query query = session.createQuery(qlString);
 		setParameter(query, parameter);
 		return query;
 	}
@@ -398,40 +454,9 @@ public class BaseDao<T> {
 	 * @param parameter
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	public <E> Page<E> findBySql(Page<E> page, String sqlString,
 			Parameter parameter, Class<?> resultClass) {
-		// get count
-		if (!page.isDisabled() && !page.isNotCount()) {
-			String countSqlString = "select count(*) "
-					+ removeSelect(removeOrders(sqlString));
-			// page.setCount(Long.valueOf(createSqlQuery(countSqlString,
-			// parameter).uniqueResult().toString()));
-			Query query = createSqlQuery(countSqlString, parameter);
-			List<Object> list = query.list();
-			if (list.size() > 0) {
-				page.setCount(Long.valueOf(list.get(0).toString()));
-			} else {
-				page.setCount(list.size());
-			}
-			if (page.getCount() < 1) {
-				return page;
-			}
-		}
-		// order by
-		String sql = sqlString;
-		if (StringUtils.isNotBlank(page.getOrderBy())) {
-			sql += " order by " + page.getOrderBy();
-		}
-		SQLQuery query = createSqlQuery(sql, parameter);
-		// set page
-		if (!page.isDisabled()) {
-			query.setFirstResult(page.getFirstResult());
-			query.setMaxResults(page.getMaxResults());
-		}
-		setResultTransformer(query, resultClass);
-		page.setList(query.list());
-		return page;
+		return find(page, sqlString, parameter, true, resultClass);
 	}
 
 	/**
@@ -498,7 +523,10 @@ public class BaseDao<T> {
 	 * @return
 	 */
 	public int updateBySql(String sqlString, Parameter parameter) {
-		return createSqlQuery(sqlString, parameter).executeUpdate();
+		int result = createSqlQuery(sqlString, parameter).executeUpdate();
+		// 无法确定SQL修改了哪些表
+		countCache.invalidateAll();
+		return result;
 	}
 
 	/**
@@ -509,13 +537,477 @@ public class BaseDao<T> {
 	 * @return
 	 */
 	public SQLQuery createSqlQuery(String sqlString, Parameter parameter) {
-		SQLQuery query = getSession().createSQLQuery(sqlString);
+		return createSqlQuery(getSession(), sqlString, parameter);
+	}
+
+	private SQLQuery createSqlQuery(Session session, String sqlString,
+			Parameter parameter) {
+		SQLQuery query = session.createSQLQuery(sqlString);
 		setParameter(query, parameter);
 		return query;
 	}
 
+	// -------------- Scroll --------------
+
+	/**
+	 * QL 游标查询，只向前读取。MySQL中使用流式结果集，不把整个结果集读入内存。
+	 * 使用后必须关闭；读取过程中不能在同一个连接上执行其他查询（包括延迟加载）
+	 * 
+	 * @param qlString
+	 * @param parameter
+	 * @return
+	 */
+	public ScrollableResults scroll(String qlString, Parameter parameter) {
+		Query query = createQuery(qlString, parameter);
+		prepareScroll(query);
+		return query.scroll(ScrollMode.FORWARD_ONLY);
+	}
+
+	/**
+	 * QL 逐行处理，用于导出、重建索引等大量数据的处理。
+	 * 实体为只读，不进入二级缓存，每处理1000行清空一次Session，因此内存占用与结果集大小无关。
+	 * 处理过程中不能执行其他查询，关联对象需要在QL中fetch；Session在处理前加载的实体也会被清除
+	 * 
+	 * @param qlString
+	 * @param parameter
+	 * @param callback
+	 * @return 处理的行数
+	 */
+	public <E> int forEach(String qlString, Parameter parameter,
+			RowCallback<E> callback) {
+		return forEach(scroll(qlString, parameter), callback);
+	}
+
+	/**
+	 * 逐行处理所有实体
+	 * 
+	 * @param callback
+	 * @return 处理的行数
+	 */
+	public int forEach(RowCallback<T> callback) {
+		return forEach(createDetachedCriteria(), callback);
+	}
+
+	/**
+	 * 使用检索标准对象逐行处理
+	 * 
+	 * @param detachedCriteria
+	 * @param callback
+	 * @return 处理的行数
+	 */
+	public int forEach(DetachedCriteria detachedCriteria,
+			RowCallback<T> callback) {
+		Criteria criteria = detachedCriteria
+				.getExecutableCriteria(getSession());
+		criteria.setReadOnly(true);
+		criteria.setCacheMode(CacheMode.IGNORE);
+		criteria.setFetchSize(getScrollFetchSize());
+		return forEach(criteria.scroll(ScrollMode.FORWARD_ONLY), callback);
+	}
+
+	/**
+	 * SQL 逐行处理
+	 * 
+	 * @param sqlString
+	 * @param parameter
+	 * @param resultClass
+	 * @param callback
+	 * @return 处理的行数
+	 */
+	public <E> int forEachBySql(String sqlString, Parameter parameter,
+			Class<?> resultClass, RowCallback<E> callback) {
+		SQLQuery query = createSqlQuery(sqlString, parameter);
+		setResultTransformer(query, resultClass);
+		prepareScroll(query);
+		return forEach(query.scroll(ScrollMode.FORWARD_ONLY), callback);
+	}
+
+	private void prepareScroll(Query query) {
+		query.setReadOnly(true);
+		query.setCacheMode(CacheMode.IGNORE);
+		query.setFetchSize(getScrollFetchSize());
+	}
+
+	/**
+	 * MySQL驱动只有fetchSize为Integer.MIN_VALUE时才逐行读取，否则读取整个结果集
+	 */
+	private int getScrollFetchSize() {
+		if (getSessionFactoryImplementor().getDialect() instanceof MySQLDialect) {
+			return Integer.MIN_VALUE;
+		}
+		return SCROLL_FETCH_SIZE;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <E> int forEach(ScrollableResults results, RowCallback<E> callback) {
+		Session session = getSession();
+		int count = 0;
+		try {
+			while (results.next()) {
+				// 只有一列或使用了ResultTransformer时，行只有一个元素
+				Object[] row = results.get();
+				callback.handle((E) (row.length == 1 ? row[0] : row));
+				if (++count % SCROLL_CLEAR_INTERVAL == 0) {
+					session.clear();
+				}
+			}
+		} finally {
+			results.close();
+		}
+		return count;
+	}
+
 	// -------------- Query Tools --------------
 
+	/**
+	 * QL或SQL分页查询. 总数和数据查询语句按形状缓存; Page要求并行查询总数时, 总数在另一个连接上与数据同时查询.
+	 * 
+	 * @param page
+	 * @param qlString
+	 * @param parameter
+	 * @param sql
+	 *            是否为SQL
+	 * @param resultClass
+	 *            SQL的结果类型
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private <E> Page<E> find(Page<E> page, String qlString,
+			Parameter parameter, boolean sql, Class<?> resultClass) {
+		PagedQuery pagedQuery = PagedQuery.of(qlString, page.getOrderBy(),
+				page.isKeyset(), page.isKeyset() && page.getSeek() != null);
+		// get count
+		Future<CountCache.Entry> countFuture = null;
+		if (!page.isDisabled() && !page.isNotCount()) {
+			if (page.isParallelCount()) {
+				countFuture = countInParallel(page.isEstimateCount(),
+						pagedQuery.getCountQlString(), parameter, sql);
+			}
+			if (countFuture == null) {
+				setCount(page, count(getSession(), page.isEstimateCount(),
+						pagedQuery.getCountQlString(), parameter, sql));
+				if (page.getCount() < 1) {
+					return page;
+				}
+			}
+		}
+		// keyset
+		Keyset keyset = pagedQuery.getKeyset();
+		if (keyset != null && page.getSeek() != null) {
+			parameter = keyset.toParameter(parameter, page.getSeek());
+		}
+		Query query;
+		if (sql) {
+			query = createSqlQuery(pagedQuery.getQlString(), parameter);
+			setResultTransformer((SQLQuery) query, resultClass);
+		} else {
+			query = createQuery(pagedQuery.getQlString(), parameter);
+		}
+		// set page
+		int firstResult = 0;
+		if (!page.isDisabled()) {
+			// 并行查询时还不知道总数, 先按页码查询
+			firstResult = countFuture != null ? page.getOffset() : page
+					.getFirstResult();
+			query.setFirstResult(firstResult);
+			query.setMaxResults(page.getMaxResults());
+		}
+		List<E> list = query.list();
+		if (countFuture != null) {
+			CountCache.Entry count = getCount(countFuture);
+			setCount(page, count != null ? count : count(getSession(),
+					page.isEstimateCount(), pagedQuery.getCountQlString(),
+					parameter, sql));
+			if (page.getCount() < 1) {
+				return page;
+			}
+			// 页码超出总数时按第一页重新查询
+			if (page.getFirstResult() != firstResult) {
+				query.setFirstResult(page.getFirstResult());
+				list = query.list();
+			}
+		}
+		page.setList(list);
+		if (keyset != null) {
+			page.setNextSeek(keyset.getValues(list));
+		}
+		return page;
+	}
+
+	private void setCount(Page<?> page, CountCache.Entry count) {
+		page.setCount(count.getCount());
+		page.setCountEstimated(count.isEstimated());
+	}
+
+	/**
+	 * 在线程池中用新的Session查询总数, 结束后关闭Session.
+	 */
+	private abstract class CountTask implements Callable<CountCache.Entry> {
+		public CountCache.Entry call() {
+			Session session = sessionFactory.openSession();
+			try {
+				return count(session);
+			} finally {
+				session.close();
+			}
+		}
+
+		abstract CountCache.Entry count(Session session);
+	}
+
+	/**
+	 * 线程都在使用时返回null, 由调用者在当前Session中查询.
+	 */
+	private Future<CountCache.Entry> submit(CountTask task) {
+		try {
+			return countExecutor.submit(task);
+		} catch (RejectedExecutionException e) {
+			logger.debug("no idle count thread, count in current session");
+			return null;
+		}
+	}
+
+	private Future<CountCache.Entry> countInParallel(final boolean estimate,
+			final String countQlString, final Parameter parameter,
+			final boolean sql) {
+		return submit(new CountTask() {
+			@Override
+			CountCache.Entry count(Session session) {
+				return BaseDao.this.count(session, estimate, countQlString,
+						parameter, sql);
+			}
+		});
+	}
+
+	/**
+	 * 复制检索标准对象, 查询条件中有不能序列化的值时返回null.
+	 */
+	private DetachedCriteria copy(DetachedCriteria detachedCriteria) {
+		try {
+			return (DetachedCriteria) SerializationHelper
+					.clone(detachedCriteria);
+		} catch (SerializationException e) {
+			logger.debug("failed to copy criteria, count in current session",
+					e);
+			return null;
+		}
+	}
+
+	/**
+	 * 在另一个Session中查询复制的检索标准对象的总数, 线程都在使用时返回null.
+	 */
+	private Future<CountCache.Entry> countInParallel(
+			final DetachedCriteria copy) {
+		return submit(new CountTask() {
+			@Override
+			CountCache.Entry count(Session session) {
+				return new CountCache.Entry(BaseDao.this.count(copy
+						.getExecutableCriteria(session)), false, null, null);
+			}
+		});
+	}
+
+	/**
+	 * 等待并行查询的总数, 超时后取消查询并返回null.
+	 */
+	private CountCache.Entry getCount(Future<CountCache.Entry> future) {
+		try {
+			return future.get(PARALLEL_COUNT_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			logger.warn("parallel count timed out, count in current session");
+			return null;
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new HibernateException("interrupted while counting", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new HibernateException(e.getCause());
+		}
+	}
+
+	/**
+	 * 查询总数, 优先使用缓存. 要求估算时, 在MySQL中使用EXPLAIN的估计行数, 估计值较小或无法估算时仍精确查询.
+	 * 
+	 * @param session
+	 * @param estimate
+	 *            是否允许估算
+	 * @param countQlString
+	 *            总数查询语句
+	 * @param parameter
+	 * @param sql
+	 *            是否为SQL, SQL的总数缓存只在本实体的表或SQL更新时失效
+	 * @return
+	 */
+	private CountCache.Entry count(Session session, boolean estimate,
+			String countQlString, Parameter parameter, boolean sql) {
+		List<Object> key = null;
+		String[] spaces = null;
+		long[] versions = null;
+		if (countCache.isEnabled()) {
+			key = CountCache.key(sql, countQlString, parameter);
+			CountCache.Entry entry = countCache.get(key);
+			if (entry != null && (estimate || !entry.isEstimated())) {
+				return entry;
+			}
+			spaces = sql ? getEntityQuerySpaces()
+					: getQuerySpaces(countQlString);
+			versions = countCache.getVersions(spaces);
+		}
+
+		long count = estimate ? estimateCount(session, countQlString,
+				parameter, sql) : -1;
+		boolean estimated = count >= 0;
+		if (!estimated) {
+			Query query = sql ? createSqlQuery(session, countQlString,
+					parameter) : createQuery(session, countQlString, parameter);
+			List<?> list = query.list();
+			count = list.isEmpty() ? 0 : Long.valueOf(list.get(0).toString());
+		}
+		CountCache.Entry entry = new CountCache.Entry(count, estimated,
+				spaces, versions);
+		if (key != null) {
+			countCache.put(key, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * 使用MySQL EXPLAIN估算总数. 只使用第一行即驱动表的估计, 有join时不考虑其他表的行数.
+	 * 
+	 * @return 不能估算或估计值小于page.estimateCountThreshold时返回-1
+	 */
+	private long estimateCount(Session session, String countQlString,
+			Parameter parameter, boolean sql) {
+		if (!(getSessionFactoryImplementor().getDialect() instanceof MySQLDialect)) {
+			return -1;
+		}
+		try {
+			SQLQuery query = sql ? createSqlQuery(session, "explain "
+					+ countQlString, parameter) : createExplainQuery(session,
+					countQlString, parameter);
+			if (query == null) {
+				return -1;
+			}
+			query.setResultTransformer(Transformers.ALIAS_TO_ENTITY_MAP);
+			@SuppressWarnings("unchecked")
+			List<Map<String, Object>> rows = query.list();
+			if (rows.isEmpty() || !(rows.get(0).get("rows") instanceof Number)) {
+				return -1;
+			}
+			// 第一行是驱动表, filtered为条件过滤后剩余的百分比
+			Map<String, Object> row = rows.get(0);
+			double estimate = ((Number) row.get("rows")).doubleValue();
+			if (row.get("filtered") instanceof Number) {
+				estimate = estimate
+						* ((Number) row.get("filtered")).doubleValue() / 100;
+			}
+			long count = Math.round(estimate);
+			return count < ESTIMATE_COUNT_THRESHOLD ? -1 : count;
+		} catch (HibernateException e) {
+			logger.debug("failed to estimate count: " + countQlString, e);
+			return -1;
+		}
+	}
+
+	/**
+	 * 把QL翻译为SQL, 创建EXPLAIN查询. 参数为集合或数组时, 执行时才展开, 返回null.
+	 */
+	private SQLQuery createExplainQuery(Session session, String qlString,
+			Parameter parameter) {
+		QueryTranslator[] translators = getSessionFactoryImplementor()
+				.getQueryPlanCache()
+				.getHQLQueryPlan(qlString, false,
+						Collections.<String, Filter> emptyMap())
+				.getTranslators();
+		if (translators.length != 1) {
+			return null;
+		}
+		QueryTranslator translator = translators[0];
+		SQLQuery query = session.createSQLQuery("explain "
+				+ translator.getSQLString());
+		if (parameter != null) {
+			ParameterTranslations translations = translator
+					.getParameterTranslations();
+			for (Map.Entry<String, Object> entry : parameter.entrySet()) {
+				Object value = entry.getValue();
+				if (value instanceof Collection<?> || value instanceof Object[]) {
+					return null;
+				}
+				Type type = translations.getNamedParameterExpectedType(entry
+						.getKey());
+				for (int location : translations
+						.getNamedParameterSqlLocations(entry.getKey())) {
+					if (type != null) {
+						query.setParameter(location, value, type);
+					} else {
+						query.setParameter(location, value);
+					}
+				}
+			}
+		}
+		return query;
+	}
+
+	private SessionFactoryImplementor getSessionFactoryImplementor() {
+		return (SessionFactoryImplementor) sessionFactory;
+	}
+
+	/**
+	 * QL涉及的表.
+	 */
+	private String[] getQuerySpaces(String qlString) {
+		Set<?> spaces = getSessionFactoryImplementor()
+				.getQueryPlanCache()
+				.getHQLQueryPlan(qlString, false,
+						Collections.<String, Filter> emptyMap())
+				.getQuerySpaces();
+		String[] result = new String[spaces.size()];
+		int i = 0;
+		for (Object space : spaces) {
+			result[i++] = space.toString();
+		}
+		return result;
+	}
+
+	/**
+	 * 本实体对应的表.
+	 */
+	private String[] getEntityQuerySpaces() {
+		if (entityQuerySpaces == null) {
+			Serializable[] spaces = getSessionFactoryImplementor()
+					.getEntityPersister(entityClass.getName()).getQuerySpaces();
+			String[] result = new String[spaces.length];
+			for (int i = 0; i < spaces.length; i++) {
+				result[i] = spaces[i].toString();
+			}
+			entityQuerySpaces = result;
+		}
+		return entityQuerySpaces;
+	}
+
+	/**
+	 * 使缓存的总数失效. 在事务中时, 提交后再失效一次, 避免事务提交前其他请求查询并缓存了旧的总数.
+	 */
+	private void invalidateCounts(final String[] spaces) {
+		if (!countCache.isEnabled()) {
+			return;
+		}
+		countCache.invalidate(spaces);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager
+					.registerSynchronization(new TransactionSynchronizationAdapter() {
+						@Override
+						public void afterCompletion(int status) {
+							countCache.invalidate(spaces);
+						}
+					});
+		}
+	}
+
 	/**
 	 * 设置查询结果类型
 	 * 
@@ -557,35 +1049,6 @@ public class BaseDao<T> {
 		}
 	}
 
-	/**
-	 * 去除qlString的select子句。
-	 * 
-	 * @param qlString
-	 * @return
-	 */
-	private String removeSelect(String qlString) {
-		int beginPos = qlString.toLowerCase().indexOf("from");
-		return qlString.substring(beginPos);
-	}
-
-	/**
-	 * 去除hql的orderBy子句。
-	 * 
-	 * @param qlString
-	 * @return
-	 */
-	private String removeOrders(String qlString) {
-		Pattern p = Pattern.compile("order\\s*by[\\w|\\W|\\s|\\S]*",
-				Pattern.CASE_INSENSITIVE);
-		Matcher m = p.matcher(qlString);
-		StringBuffer sb = new StringBuffer();
-		while (m.find()) {
-			m.appendReplacement(sb, "");
-		}
-		m.appendTail(sb);
-		return sb.toString();
-	}
-
 	// -------------- Criteria --------------
 
 	/**
@@ -619,9 +1082,8 @@ public class BaseDao<T> {
 		// get count
 		if (!page.isDisabled() && !page.isNotCount()) {
 			String countHql = "select count(*) " + hql;
-			List<Integer> list = find(countHql, parameter);
-			int count = list == null ? 0 : list.get(0);
-			page.setCount(count);
+			setCount(page, count(getSession(), page.isEstimateCount(),
+					countHql, parameter, false));
 			if (page.getCount() < 1) {
 				return page;
 			}
@@ -644,21 +1106,36 @@ public class BaseDao<T> {
 	public Page<T> find(Page<T> page, DetachedCriteria detachedCriteria,
 			ResultTransformer resultTransformer, boolean cacheable) {
 		// get count
-		if (!page.isDisabled() && !page.isNotCount()) {
-			page.setCount(count(detachedCriteria));
-			if (page.getCount() < 1) {
-				return page;
+		Future<CountCache.Entry> countFuture = null;
+		// 数据查询会改动detachedCriteria, 超时后用查询前复制的对象在当前Session中查询总数
+		DetachedCriteria countCriteria = null;
+		if (!page.isDisabled() && !page.isNotCount()
+				&& page.isParallelCount()) {
+			countCriteria = copy(detachedCriteria);
+			if (countCriteria != null) {
+				countFuture = countInParallel(copy(countCriteria));
 			}
 		}
+		// 总数和数据使用同一个Criteria
 		Criteria criteria = detachedCriteria
 				.getExecutableCriteria(getSession());
+		if (countFuture == null && !page.isDisabled() && !page.isNotCount()) {
+			page.setCount(count(criteria));
+			if (page.getCount() < 1) {
+				return page;
+			}
+		}
 		if (cacheable) {
 			criteria.setCacheable(cacheable);
 		}
 		criteria.setResultTransformer(resultTransformer);
 		// set page
+		int firstResult = 0;
 		if (!page.isDisabled()) {
-			criteria.setFirstResult(page.getFirstResult());
+			// 并行查询时还不知道总数, 先按页码查询
+			firstResult = countFuture != null ? page.getOffset() : page
+					.getFirstResult();
+			criteria.setFirstResult(firstResult);
 			criteria.setMaxResults(page.getMaxResults());
 		}
 		// order by
@@ -676,7 +1153,36 @@ public class BaseDao<T> {
 				}
 			}
 		}
-		page.setList(criteria.list());
+		// keyset
+		Keyset keyset = null;
+		if (page.isKeyset()) {
+			keyset = Keyset.parse(page.getOrderBy());
+			if (page.getSeek() != null) {
+				criteria.add(keyset.toCriterion(page.getSeek()));
+			}
+		}
+		List<T> list = criteria.list();
+		if (countFuture != null) {
+			CountCache.Entry count = getCount(countFuture);
+			if (count != null) {
+				setCount(page, count);
+			} else {
+				page.setCount(count(countCriteria
+						.getExecutableCriteria(getSession())));
+			}
+			if (page.getCount() < 1) {
+				return page;
+			}
+			// 页码超出总数时按第一页重新查询
+			if (page.getFirstResult() != firstResult) {
+				criteria.setFirstResult(page.getFirstResult());
+				list = criteria.list();
+			}
+		}
+		page.setList(list);
+		if (keyset != null) {
+			page.setNextSeek(keyset.getValues(list));
+		}
 		return page;
 	}
 
@@ -712,31 +1218,37 @@ public class BaseDao<T> {
 	 * @param detachedCriteria
 	 * @return
 	 */
-	@SuppressWarnings("rawtypes")
 	public long count(DetachedCriteria detachedCriteria) {
-		Criteria criteria = detachedCriteria
-				.getExecutableCriteria(getSession());
-		long totalCount = 0;
+		return count(detachedCriteria.getExecutableCriteria(getSession()));
+	}
+
+	/**
+	 * 查询记录数. 查询时暂时去掉投影和排序, 部分数据库不允许在count查询中按非分组字段排序, 查询后原样恢复.
+	 * 
+	 * @param criteria
+	 * @return
+	 */
+	private long count(Criteria criteria) {
+		CriteriaImpl impl = (CriteriaImpl) criteria;
+		Criteria projectionCriteria = impl.getProjectionCriteria();
+		Projection projection = impl.getProjection();
+		ResultTransformer resultTransformer = impl.getResultTransformer();
+		List<CriteriaImpl.OrderEntry> orders = new ArrayList<CriteriaImpl.OrderEntry>();
+		for (Iterator<?> it = impl.iterateOrderings(); it.hasNext();) {
+			orders.add((CriteriaImpl.OrderEntry) it.next());
+			it.remove();
+		}
 		try {
-			// Get orders
-			Field field = CriteriaImpl.class.getDeclaredField("orderEntries");
-			field.setAccessible(true);
-			List orderEntrys = (List) field.get(criteria);
-			// Remove orders
-			field.set(criteria, new ArrayList());
-			// Get count
 			criteria.setProjection(Projections.rowCount());
-			totalCount = Long.valueOf(criteria.uniqueResult().toString());
-			// Clean count
-			criteria.setProjection(null);
-			// Restore orders
-			field.set(criteria, orderEntrys);
-		} catch (NoSuchFieldException e) {
-			e.printStackTrace();
-		} catch (IllegalAccessException e) {
-			e.printStackTrace();
+			Object count = criteria.uniqueResult();
+			return count == null ? 0 : ((Number) count).longValue();
+		} finally {
+			projectionCriteria.setProjection(projection);
+			criteria.setResultTransformer(resultTransformer);
+			for (CriteriaImpl.OrderEntry entry : orders) {
+				entry.getCriteria().addOrder(entry.getOrder());
+			}
 		}
-		return totalCount;
 	}
 
 	/**
@@ -1,20 +1,16 @@
 package com.isharec.framework.base.persistence;
 
-import java.io.Serializable;
-import java.util.Date;
-
 import javax.persistence.Column;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.MappedSuperclass;
-import javax.persistence.PrePersist;
-import javax.persistence.PreUpdate;
-import javax.persistence.Temporal;
-import javax.persistence.TemporalType;
 
+/**
+ * 使用数据库自增主键的实体. 插入时需要立即执行insert取得主键, 无法成批插入, 需要批量插入的实体可使用PooledIdEntity.
+ */
 @MappedSuperclass
-public abstract class BaseEntity<T> implements Serializable {
+public abstract class BaseEntity<T> extends AbstractEntity<T> {
 
 	private static final long serialVersionUID = 1L;
 
@@ -23,14 +19,6 @@ public abstract class BaseEntity<T> implements Serializable {
 	@Column(name = "id", unique = true, nullable = false)
 	public Long id;
 
-	@Column(name = "create_at")
-	@Temporal(TemporalType.TIMESTAMP)
-	public Date createAt;
-
-	@Column(name = "update_at")
-	@Temporal(TemporalType.TIMESTAMP)
-	public Date updateAt;
-
 	public Long getId() {
 		return id;
 	}
@@ -38,30 +26,4 @@ public abstract class BaseEntity<T> implements Serializable {
 	public void setId(Long id) {
 		this.id = id;
 	}
-
-	public Date getCreateAt() {
-		return createAt;
-	}
-
-	public void setCreateAt(Date createAt) {
-		this.createAt = createAt;
-	}
-
-	public Date getUpdateAt() {
-		return updateAt;
-	}
-
-	public void setUpdateAt(Date updateAt) {
-		this.updateAt = updateAt;
-	}
-
-	@PrePersist
-	public void beforeInsert() {
-		createAt = updateAt = new Date();
-	}
-
-	@PreUpdate
-	public void beforeUpdate() {
-		updateAt = new Date();
-	}
 }
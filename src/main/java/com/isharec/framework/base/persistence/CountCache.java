@@ -0,0 +1,146 @@
+package com.isharec.framework.base.persistence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * 分页查询总数的缓存.
+ *
+ * 以规范化的查询语句和参数为键, 同时记录查询涉及的表及查询时表的版本. 通过BaseDao写入一个表时递增这个表的版本,
+ * 之前缓存的总数随之失效; 不经过BaseDao的写入只能等缓存过期.
+ *
+ * 以下写入不会使缓存失效: 受管理的实体修改后未调用save, 由Hibernate脏检查刷新; 其他DAO或直接JDBC的写入;
+ * SQL查询中关联的其他表的写入(SQL只跟踪本实体的表). 因此默认不开启, 只在能接受总数短时间不准的查询上使用.
+ */
+class CountCache {
+	private static final int MAX_SIZE = 10000;
+
+	static class Entry {
+		private final long count;
+		private final boolean estimated;
+		private final String[] spaces;
+		private final long[] versions;
+
+		Entry(long count, boolean estimated, String[] spaces, long[] versions) {
+			this.count = count;
+			this.estimated = estimated;
+			this.spaces = spaces;
+			this.versions = versions;
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		boolean isEstimated() {
+			return estimated;
+		}
+	}
+
+	private final Cache<List<Object>, Entry> cache;
+	// 表名到版本
+	private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<String, AtomicLong>();
+	// 对所有表有效的版本, 执行SQL更新时递增
+	private final AtomicLong globalVersion = new AtomicLong();
+
+	/**
+	 * @param ttl
+	 *            缓存时间(秒), 不大于0时不缓存
+	 */
+	CountCache(int ttl) {
+		cache = ttl > 0 ? CacheBuilder.newBuilder().maximumSize(MAX_SIZE)
+				.expireAfterWrite(ttl, TimeUnit.SECONDS)
+				.<List<Object>, Entry> build() : null;
+	}
+
+	boolean isEnabled() {
+		return cache != null;
+	}
+
+	/**
+	 * 查询语句中连续的空白视为一个空格, 参数按名称排序, 集合和数组按内容比较.
+	 */
+	static List<Object> key(boolean sql, String ql, Parameter parameter) {
+		Map<String, Object> params = new TreeMap<String, Object>();
+		if (parameter != null) {
+			for (Map.Entry<String, Object> entry : parameter.entrySet()) {
+				Object value = entry.getValue();
+				if (value instanceof Collection<?>) {
+					value = new ArrayList<Object>((Collection<?>) value);
+				} else if (value instanceof Object[]) {
+					value = Arrays.asList((Object[]) value);
+				}
+				params.put(entry.getKey(), value);
+			}
+		}
+		return Arrays.<Object> asList(sql, ql.trim().replaceAll("\\s+", " "),
+				params);
+	}
+
+	/**
+	 * @return 没有缓存或表已被修改时返回null
+	 */
+	Entry get(List<Object> key) {
+		if (cache == null) {
+			return null;
+		}
+		Entry entry = cache.getIfPresent(key);
+		if (entry != null
+				&& !Arrays.equals(entry.versions, getVersions(entry.spaces))) {
+			cache.invalidate(key);
+			return null;
+		}
+		return entry;
+	}
+
+	void put(List<Object> key, Entry entry) {
+		if (cache != null) {
+			cache.put(key, entry);
+		}
+	}
+
+	/**
+	 * 查询前取得表的版本, 查询过程中表被修改时保存的总数也会失效.
+	 */
+	long[] getVersions(String[] spaces) {
+		long[] result = new long[spaces.length + 1];
+		result[0] = globalVersion.get();
+		for (int i = 0; i < spaces.length; i++) {
+			AtomicLong version = versions.get(spaces[i]);
+			result[i + 1] = version == null ? 0 : version.get();
+		}
+		return result;
+	}
+
+	void invalidate(String[] spaces) {
+		for (String space : spaces) {
+			AtomicLong version = versions.get(space);
+			if (version == null) {
+				AtomicLong created = new AtomicLong();
+				version = versions.putIfAbsent(space, created);
+				if (version == null) {
+					version = created;
+				}
+			}
+			version.incrementAndGet();
+		}
+	}
+
+	void invalidateAll() {
+		globalVersion.incrementAndGet();
+		if (cache != null) {
+			cache.invalidateAll();
+		}
+	}
+}
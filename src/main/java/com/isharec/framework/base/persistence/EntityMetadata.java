@@ -0,0 +1,200 @@
+package com.isharec.framework.base.persistence;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.EmbeddedId;
+import javax.persistence.Id;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Version;
+
+import com.isharec.framework.utils.ReflectionsUtils;
+import com.isharec.framework.utils.StringUtils;
+
+/**
+ * 实体类的主键, 版本和插入前/更新前方法, 每个类只解析一次.
+ *
+ * 主键和版本的注解可以在字段或getter上; 有对应的getter时通过getter读取, Hibernate代理对象的字段没有初始化.
+ * 插入前/更新前方法包括父类中的方法, 父类的先执行.
+ */
+public class EntityMetadata {
+
+	private static final ConcurrentMap<Class<?>, EntityMetadata> cache = new ConcurrentHashMap<Class<?>, EntityMetadata>();
+
+	private final Class<?> entityClass;
+	// 主键和版本的getter或字段
+	private final AnnotatedElement id;
+	private final AnnotatedElement version;
+	private final List<Method> prePersistMethods;
+	private final List<Method> preUpdateMethods;
+
+	private EntityMetadata(Class<?> entityClass) {
+		this.entityClass = entityClass;
+		AnnotatedElement id = findAccessor(entityClass, Id.class);
+		this.id = id != null ? id : findAccessor(entityClass, EmbeddedId.class);
+		this.version = findAccessor(entityClass, Version.class);
+		this.prePersistMethods = findCallbacks(entityClass, PrePersist.class);
+		this.preUpdateMethods = findCallbacks(entityClass, PreUpdate.class);
+	}
+
+	public static EntityMetadata forClass(Class<?> entityClass) {
+		EntityMetadata metadata = cache.get(entityClass);
+		if (metadata == null) {
+			metadata = new EntityMetadata(entityClass);
+			EntityMetadata old = cache.putIfAbsent(entityClass, metadata);
+			if (old != null) {
+				metadata = old;
+			}
+		}
+		return metadata;
+	}
+
+	/**
+	 * 代理对象按被代理的实体类解析, 代理类不放入缓存.
+	 */
+	public static EntityMetadata forEntity(Object entity) {
+		return forClass(ReflectionsUtils.getUserClass(entity));
+	}
+
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+
+	public Object getId(Object entity) {
+		return get(id, entity);
+	}
+
+	/**
+	 * 主键为空时视为新实体.
+	 */
+	public boolean isNew(Object entity) {
+		Object value = getId(entity);
+		return value == null || StringUtils.isBlank(value.toString());
+	}
+
+	public boolean hasVersion() {
+		return version != null;
+	}
+
+	public Object getVersion(Object entity) {
+		return get(version, entity);
+	}
+
+	/**
+	 * 执行插入前方法
+	 */
+	public void prePersist(Object entity) {
+		invoke(prePersistMethods, entity);
+	}
+
+	/**
+	 * 执行更新前方法
+	 */
+	public void preUpdate(Object entity) {
+		invoke(preUpdateMethods, entity);
+	}
+
+	private static Object get(AnnotatedElement accessor, Object entity) {
+		if (accessor == null) {
+			return null;
+		}
+		try {
+			if (accessor instanceof Method) {
+				return ((Method) accessor).invoke(entity);
+			}
+			return ((Field) accessor).get(entity);
+		} catch (Exception e) {
+			throw ReflectionsUtils.convertReflectionExceptionToUnchecked(e);
+		}
+	}
+
+	private static void invoke(List<Method> methods, Object entity) {
+		for (Method method : methods) {
+			try {
+				method.invoke(entity);
+			} catch (Exception e) {
+				throw ReflectionsUtils.convertReflectionExceptionToUnchecked(e);
+			}
+		}
+	}
+
+	/**
+	 * 查找有注解的getter或字段. 注解在字段上时, 有getter则返回getter.
+	 */
+	private static AnnotatedElement findAccessor(Class<?> clazz,
+			Class<? extends Annotation> annotation) {
+		for (Method method : clazz.getMethods()) {
+			if (method.isAnnotationPresent(annotation)
+					&& method.getParameterTypes().length == 0) {
+				return method;
+			}
+		}
+		for (Class<?> c = clazz; c != Object.class; c = c.getSuperclass()) {
+			for (Field field : c.getDeclaredFields()) {
+				if (field.isAnnotationPresent(annotation)) {
+					try {
+						return clazz.getMethod("get"
+								+ StringUtils.capitalize(field.getName()));
+					} catch (NoSuchMethodException e) {
+						ReflectionsUtils.makeAccessible(field);
+						return field;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 查找生命周期方法, 子类覆盖的方法只执行一次.
+	 */
+	private static List<Method> findCallbacks(Class<?> clazz,
+			Class<? extends Annotation> annotation) {
+		List<Class<?>> hierarchy = new ArrayList<Class<?>>();
+		for (Class<?> c = clazz; c != Object.class; c = c.getSuperclass()) {
+			hierarchy.add(c);
+		}
+		Collections.reverse(hierarchy);
+
+		List<Method> methods = new ArrayList<Method>();
+		for (Class<?> c : hierarchy) {
+			for (Method method : c.getDeclaredMethods()) {
+				if (!method.isAnnotationPresent(annotation)
+						|| method.getParameterTypes().length != 0
+						|| Modifier.isStatic(method.getModifiers())) {
+					continue;
+				}
+				Method resolved = Modifier.isPrivate(method.getModifiers()) ? method
+						: findOverride(clazz, method.getName());
+				if (!methods.contains(resolved)) {
+					ReflectionsUtils.makeAccessible(resolved);
+					methods.add(resolved);
+				}
+			}
+		}
+		return Collections.unmodifiableList(methods);
+	}
+
+	/**
+	 * 子类中最后覆盖的无参方法.
+	 */
+	private static Method findOverride(Class<?> clazz, String name) {
+		for (Class<?> c = clazz; c != Object.class; c = c.getSuperclass()) {
+			try {
+				return c.getDeclaredMethod(name);
+			} catch (NoSuchMethodException e) {
+				// 不在当前类定义, 继续向上查找
+			}
+		}
+		throw new IllegalStateException(name + " not found in " + clazz);
+	}
+}
@@ -0,0 +1,175 @@
+package com.isharec.framework.base.persistence;
+
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Restrictions;
+
+import com.isharec.framework.utils.ReflectionsUtils;
+import com.isharec.framework.utils.StringUtils;
+
+/**
+ * keyset分页的排序字段, 由Page.orderBy解析得到, 如 createAt desc, id desc.
+ *
+ * 最后一个字段必须唯一. 查询条件展开为 a < :seek1 or (a = :seek1 and b < :seek2) 的形式,
+ * 支持不同字段使用不同的排序方向, 在MySQL中可以使用(a, b)上的索引.
+ */
+class Keyset {
+	static final String PARAMETER_PREFIX = "seek";
+
+	private final String[] keys;
+	private final boolean[] desc;
+
+	private Keyset(String[] keys, boolean[] desc) {
+		this.keys = keys;
+		this.desc = desc;
+	}
+
+	static Keyset parse(String orderBy) {
+		if (StringUtils.isBlank(orderBy)) {
+			throw new IllegalArgumentException(
+					"keyset paging requires orderBy ending with a unique key");
+		}
+		String[] orders = StringUtils.split(orderBy, ",");
+		String[] keys = new String[orders.length];
+		boolean[] desc = new boolean[orders.length];
+		for (int i = 0; i < orders.length; i++) {
+			String[] o = StringUtils.split(orders[i], " ");
+			if (o.length < 1 || o.length > 2) {
+				throw new IllegalArgumentException("invalid orderBy: "
+						+ orderBy);
+			}
+			keys[i] = o[0];
+			desc[i] = o.length == 2 && "DESC".equals(o[1].toUpperCase());
+		}
+		return new Keyset(keys, desc);
+	}
+
+	private void checkValues(Object[] values) {
+		if (values.length != keys.length) {
+			throw new IllegalArgumentException("expected " + keys.length
+					+ " seek values but got " + values.length);
+		}
+		for (Object value : values) {
+			if (value == null) {
+				throw new IllegalArgumentException(
+						"seek values must not be null");
+			}
+		}
+	}
+
+	/**
+	 * Criteria的查询条件, 字段为属性名.
+	 */
+	Criterion toCriterion(Object[] values) {
+		checkValues(values);
+		Criterion result = null;
+		for (int i = keys.length - 1; i >= 0; i--) {
+			Criterion after = desc[i] ? Restrictions.lt(keys[i], values[i])
+					: Restrictions.gt(keys[i], values[i]);
+			if (result == null) {
+				result = after;
+			} else {
+				result = Restrictions.or(after, Restrictions.and(
+						Restrictions.eq(keys[i], values[i]), result));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * QL或SQL的查询条件, 字段按原样写入, 参数为seek1..seekN.
+	 */
+	String toCondition() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < keys.length; i++) {
+			if (i > 0) {
+				sb.append(" or (");
+				for (int j = 0; j < i; j++) {
+					sb.append(keys[j]).append(" = :").append(PARAMETER_PREFIX)
+							.append(j + 1).append(" and ");
+				}
+			}
+			sb.append(keys[i]).append(desc[i] ? " < :" : " > :")
+					.append(PARAMETER_PREFIX).append(i + 1);
+			if (i > 0) {
+				sb.append(")");
+			}
+		}
+		return sb.insert(0, "(").append(")").toString();
+	}
+
+	/**
+	 * 在原有参数上加入seek1..seekN.
+	 */
+	Parameter toParameter(Parameter parameter, Object[] values) {
+		checkValues(values);
+		Parameter result = new Parameter();
+		if (parameter != null) {
+			result.putAll(parameter);
+		}
+		for (int i = 0; i < values.length; i++) {
+			result.put(PARAMETER_PREFIX + (i + 1), values[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * 取出本页最后一条记录的排序字段值, 作为下一页的起点.
+	 *
+	 * 记录为Map时按字段名取值; 为实体时按属性取值, 字段带别名(如 u.createAt)时去掉别名, 带下划线的列名转换为属性名.
+	 *
+	 * @return 本页为空时返回null
+	 */
+	Object[] getValues(List<?> list) {
+		if (list == null || list.isEmpty()) {
+			return null;
+		}
+		Object last = list.get(list.size() - 1);
+		Object[] values = new Object[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			values[i] = getValue(last, keys[i]);
+		}
+		return values;
+	}
+
+	private static Object getValue(Object row, String key) {
+		int dot = key.indexOf('.');
+		if (row instanceof Map<?, ?>) {
+			Map<?, ?> map = (Map<?, ?>) row;
+			if (map.containsKey(key) || dot == -1) {
+				return map.get(key);
+			}
+			return map.get(key.substring(key.lastIndexOf('.') + 1));
+		}
+		try {
+			return ReflectionsUtils.invokeGetter(row, toPropertyName(key));
+		} catch (RuntimeException e) {
+			if (dot == -1) {
+				throw e;
+			}
+			// 第一段为别名
+			return ReflectionsUtils.invokeGetter(row,
+					toPropertyName(key.substring(dot + 1)));
+		}
+	}
+
+	private static String toPropertyName(String column) {
+		if (column.indexOf('_') == -1) {
+			return column;
+		}
+		StringBuilder sb = new StringBuilder(column.length());
+		boolean upper = false;
+		for (int i = 0; i < column.length(); i++) {
+			char c = column.charAt(i);
+			if (c == '_') {
+				upper = true;
+			} else {
+				sb.append(upper ? Character.toUpperCase(c) : c);
+				upper = false;
+			}
+		}
+		return sb.toString();
+	}
+}
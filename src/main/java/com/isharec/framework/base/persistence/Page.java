@@ -20,6 +20,10 @@ public class Page<T> {
 
 	private long count;// 总记录数，设置为“-1”表示不查询总数
 
+	private boolean estimateCount;// 是否允许使用数据库估计的总数
+	private boolean countEstimated;// 总数是否为估计值
+	private boolean parallelCount;// 是否与数据查询并行查询总数
+
 	private int first;// 首页索引
 	private int last;// 尾页索引
 	private int prev;// 上一页索引
@@ -35,6 +39,10 @@ public class Page<T> {
 
 	private String orderBy = ""; // 标准查询有效， 实例： updatedate desc, name asc
 
+	private boolean keyset;// 是否按排序字段定位分页，不使用offset
+	private Object[] seek;// 上一页最后一条记录的排序字段值，为空时查询第一页
+	private Object[] nextSeek;// 本页最后一条记录的排序字段值
+
 	private String funcName = "page"; // 设置点击页码调用的js函数名称，默认为page，在一页有多个分页对象时使用。
 
 	private String message = ""; // 设置提示消息，显示在“共n条”之后
@@ -284,7 +292,7 @@ public class Page<T> {
 				+ "("
 				+ pageNo
 				+ ",this.value);\" onclick=\"this.select();\" style=\"height: 20px;margin-top: -3px;width:30px;\"/> 条，");
-		sb.append("共 " + count + " 条" + (message != null ? message : "")
+		sb.append("共 " + (countEstimated ? "约 " : "") + count + " 条" + (message != null ? message : "")
 				+ "</a><li>\n");
 
 		sb.insert(0, "<ul>\n").append("</ul>\n");
@@ -335,6 +343,65 @@ public class Page<T> {
 		}
 	}
 
+	/**
+	 * 是否允许使用数据库估计的总数
+	 * 
+	 * @return
+	 */
+	@JsonIgnore
+	public boolean isEstimateCount() {
+		return estimateCount;
+	}
+
+	/**
+	 * 设置是否允许使用数据库估计的总数，用于数据量很大、不需要精确总数的列表。目前只对MySQL的QL和SQL分页查询有效。
+	 * 估计值取EXPLAIN的第一行，即驱动表的rows乘以filtered；有join时不考虑其他表，一对多的join会少估
+	 * 
+	 * @param estimateCount
+	 */
+	public void setEstimateCount(boolean estimateCount) {
+		this.estimateCount = estimateCount;
+	}
+
+	/**
+	 * 总数是否为估计值
+	 * 
+	 * @return
+	 */
+	public boolean isCountEstimated() {
+		return countEstimated;
+	}
+
+	/**
+	 * 设置总数是否为估计值
+	 * 
+	 * @param countEstimated
+	 */
+	public void setCountEstimated(boolean countEstimated) {
+		this.countEstimated = countEstimated;
+	}
+
+	/**
+	 * 是否与数据查询并行查询总数
+	 * 
+	 * @return
+	 */
+	@JsonIgnore
+	public boolean isParallelCount() {
+		return parallelCount;
+	}
+
+	/**
+	 * 设置是否在另一个连接上与数据查询并行查询总数，用于总数查询较慢的列表。
+	 * 总数查询不在当前事务中，看不到当前事务未提交的修改，总数可能与数据不一致；页码超出总数时会再查询一次第一页。
+	 * 并行查询的线程都在使用或等待超过page.parallelCountTimeout时，在当前Session中查询总数
+	 * 
+	 * @param parallelCount
+	 */
+	public void setParallelCount(boolean parallelCount) {
+		this.parallelCount = parallelCount;
+	}
+
 	/**
 	 * 获取当前页码
 	 * 
@@ -485,6 +552,64 @@ public class Page<T> {
 		this.orderBy = orderBy;
 	}
 
+	/**
+	 * 是否使用keyset分页
+	 * 
+	 * @return
+	 */
+	@JsonIgnore
+	public boolean isKeyset() {
+		return keyset;
+	}
+
+	/**
+	 * 设置是否使用keyset分页：不使用offset，而是按orderBy的字段从上一页最后一条记录之后查询，翻页速度与页码无关。
+	 * orderBy的最后一个字段必须唯一，如：createAt desc, id desc；只能逐页向后翻页，pageNo无效。
+	 * 排序字段都必须NOT NULL：字段为NULL的记录不满足 &lt; 或 &gt; 的定位条件，后面的页中不会出现
+	 * 
+	 * @param keyset
+	 */
+	public void setKeyset(boolean keyset) {
+		this.keyset = keyset;
+	}
+
+	/**
+	 * 获取上一页最后一条记录的排序字段值
+	 * 
+	 * @return
+	 */
+	@JsonIgnore
+	public Object[] getSeek() {
+		return seek;
+	}
+
+	/**
+	 * 设置上一页最后一条记录的排序字段值，按orderBy的字段顺序，通常为上一页的nextSeek
+	 * 
+	 * @param seek
+	 */
+	public void setSeek(Object... seek) {
+		this.seek = seek;
+	}
+
+	/**
+	 * 获取本页最后一条记录的排序字段值，用于查询下一页，本页为空时为null
+	 * 
+	 * @return
+	 */
+	public Object[] getNextSeek() {
+		return nextSeek;
+	}
+
+	/**
+	 * 设置本页最后一条记录的排序字段值
+	 * 
+	 * @param nextSeek
+	 */
+	public void setNextSeek(Object[] nextSeek) {
+		this.nextSeek = nextSeek;
+	}
+
 	/**
 	 * 获取点击页码调用的js函数名称 function ${page.funcName}(pageNo){location=
 	 * "${ctx}/list-${category.id}${urlSuffix}?pageNo="+i;}
@@ -536,16 +661,30 @@ public class Page<T> {
 	}
 
 	/**
-	 * 获取 Hibernate FirstResult
+	 * 获取 Hibernate FirstResult. 总数为估计值时不按总数修正, 实际记录可能多于估计值
 	 */
 	public int getFirstResult() {
-		int firstResult = (getPageNo() - 1) * getPageSize();
+		int firstResult = getOffset();
+		if (countEstimated) {
+			return firstResult;
+		}
 		if (firstResult >= getCount()) {
 			firstResult = 0;
 		}
 		return firstResult;
 	}
 
+	/**
+	 * 按页码计算的起始位置，不按总数修正，用于总数还未查询时
+	 */
+	@JsonIgnore
+	public int getOffset() {
+		if (keyset) {
+			return 0;
+		}
+		return Math.max(0, (getPageNo() - 1) * getPageSize());
+	}
+
 	public int getLastResult() {
 		int lastResult = getFirstResult() + getMaxResults();
 		if (lastResult > getCount()) {
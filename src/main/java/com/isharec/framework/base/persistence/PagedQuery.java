@@ -0,0 +1,133 @@
+package com.isharec.framework.base.persistence;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.isharec.framework.utils.StringUtils;
+
+/**
+ * 分页查询的总数语句和数据语句, 由原查询语句和Page的排序方式生成.
+ *
+ * 同一形状(语句, orderBy, 是否keyset及是否有seek)只生成一次, 按形状缓存; 参数值不影响语句, 不参与缓存.
+ */
+class PagedQuery {
+	private static final int CACHE_SIZE = 1000;
+
+	private static final Pattern ORDER_BY_PATTERN = Pattern.compile(
+			"order\\s*by[\\w|\\W|\\s|\\S]*", Pattern.CASE_INSENSITIVE);
+	private static final Pattern WHERE_PATTERN = Pattern.compile("\\bwhere\\b",
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern GROUP_BY_PATTERN = Pattern.compile(
+			"\\bgroup\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
+	private static final Cache<List<Object>, PagedQuery> cache = CacheBuilder
+			.newBuilder().maximumSize(CACHE_SIZE).build();
+
+	private final String countQlString;
+	private final String qlString;
+	private final Keyset keyset;
+
+	private PagedQuery(String countQlString, String qlString, Keyset keyset) {
+		this.countQlString = countQlString;
+		this.qlString = qlString;
+		this.keyset = keyset;
+	}
+
+	static PagedQuery of(String qlString, String orderBy, boolean keyset,
+			boolean seek) {
+		List<Object> key = Arrays.<Object> asList(qlString, orderBy, keyset,
+				seek);
+		PagedQuery query = cache.getIfPresent(key);
+		if (query == null) {
+			query = create(qlString, orderBy, keyset, seek);
+			cache.put(key, query);
+		}
+		return query;
+	}
+
+	private static PagedQuery create(String qlString, String orderBy,
+			boolean keyset, boolean seek) {
+		String countQlString = "select count(*) "
+				+ removeSelect(removeOrders(qlString));
+		String ql = qlString;
+		Keyset k = null;
+		if (keyset) {
+			k = Keyset.parse(orderBy);
+			ql = removeOrders(ql);
+			if (seek) {
+				ql = addCondition(ql, k.toCondition());
+			}
+		}
+		if (StringUtils.isNotBlank(orderBy)) {
+			ql += " order by " + orderBy;
+		}
+		return new PagedQuery(countQlString, ql, k);
+	}
+
+	/**
+	 * 总数查询语句
+	 */
+	String getCountQlString() {
+		return countQlString;
+	}
+
+	/**
+	 * 数据查询语句, 已加入排序和keyset条件
+	 */
+	String getQlString() {
+		return qlString;
+	}
+
+	/**
+	 * @return 不是keyset分页时返回null
+	 */
+	Keyset getKeyset() {
+		return keyset;
+	}
+
+	/**
+	 * 去除qlString的select子句。
+	 */
+	static String removeSelect(String qlString) {
+		int beginPos = qlString.toLowerCase().indexOf("from");
+		return qlString.substring(beginPos);
+	}
+
+	/**
+	 * 去除hql的orderBy子句。
+	 */
+	static String removeOrders(String qlString) {
+		Matcher m = ORDER_BY_PATTERN.matcher(qlString);
+		StringBuffer sb = new StringBuffer();
+		while (m.find()) {
+			m.appendReplacement(sb, "");
+		}
+		m.appendTail(sb);
+		return sb.toString();
+	}
+
+	/**
+	 * 在where子句中加入条件, 原有条件加括号; 有group by时加在group by之前.
+	 * 按第一个where和最后一个group by判断, 不支持select子句中带where的子查询.
+	 */
+	static String addCondition(String qlString, String condition) {
+		Matcher groupBy = GROUP_BY_PATTERN.matcher(qlString);
+		int end = qlString.length();
+		while (groupBy.find()) {
+			end = groupBy.start();
+		}
+		String head = qlString.substring(0, end);
+		String tail = qlString.substring(end);
+		Matcher where = WHERE_PATTERN.matcher(head);
+		if (where.find()) {
+			return head.substring(0, where.end()) + " ("
+					+ head.substring(where.end()) + ") and " + condition
+					+ " " + tail;
+		}
+		return head + " where " + condition + " " + tail;
+	}
+}
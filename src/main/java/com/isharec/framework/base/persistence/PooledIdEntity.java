@@ -0,0 +1,37 @@
+package com.isharec.framework.base.persistence;
+
+import javax.persistence.Column;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.MappedSuperclass;
+
+import org.hibernate.annotations.GenericGenerator;
+
+/**
+ * 主键由id_generator表分段分配的实体, 每次从表中取得50个主键, insert可以和其他语句一起成批执行.
+ *
+ * 每个实体的表在id_generator中占一行. 已有数据的表改用这个基类时, 需要先插入这个表的记录, next_val大于现有的最大主键.
+ */
+@MappedSuperclass
+public abstract class PooledIdEntity<T> extends AbstractEntity<T> {
+
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	@GeneratedValue(generator = "pooledId")
+	@GenericGenerator(name = "pooledId", strategy = "org.hibernate.id.enhanced.TableGenerator", parameters = {
+			@org.hibernate.annotations.Parameter(name = "table_name", value = "id_generator"),
+			@org.hibernate.annotations.Parameter(name = "prefer_entity_table_as_segment_value", value = "true"),
+			@org.hibernate.annotations.Parameter(name = "increment_size", value = "50"),
+			@org.hibernate.annotations.Parameter(name = "optimizer", value = "pooled") })
+	@Column(name = "id", unique = true, nullable = false)
+	public Long id;
+
+	public Long getId() {
+		return id;
+	}
+
+	public void setId(Long id) {
+		this.id = id;
+	}
+}
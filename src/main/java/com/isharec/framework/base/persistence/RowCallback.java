@@ -0,0 +1,17 @@
+package com.isharec.framework.base.persistence;
+
+/**
+ * 逐行处理查询结果, 用于BaseDao.forEach.
+ * 
+ * @param <E>
+ *            行的类型, 查询多个字段时为Object[]
+ */
+public interface RowCallback<E> {
+
+	/**
+	 * 处理一行
+	 * 
+	 * @param row
+	 */
+	void handle(E row);
+}
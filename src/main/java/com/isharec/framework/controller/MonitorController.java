@@ -0,0 +1,31 @@
+package com.isharec.framework.controller;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import com.isharec.framework.base.web.BaseController;
+import com.isharec.framework.filter.CookieSessionMetrics;
+import com.isharec.framework.filter.CookieSessionFilter;
+
+@Controller
+@RequestMapping(value = "/monitor")
+public class MonitorController extends BaseController {
+
+	/**
+	 * Cookie会话的统计, 纯文本格式. 需要admin角色, 见spring-shiro.xml.
+	 */
+	@RequestMapping(value = "cookie-session", produces = "text/plain")
+	@ResponseBody
+	public String cookieSession(HttpServletRequest request) {
+		CookieSessionMetrics metrics = (CookieSessionMetrics) request
+				.getServletContext().getAttribute(
+						CookieSessionFilter.METRICS_ATTRIBUTE);
+		if (metrics == null) {
+			return "cookie session filter is not enabled\n";
+		}
+		return metrics.report();
+	}
+}
@@ -0,0 +1,133 @@
+package com.isharec.framework.filter;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 基于Servlet 3.1 WriteListener的非阻塞文件输出, 只在socket可写时占用容器线程.
+ *
+ * WriteListener只在Servlet 3.1容器中存在, 引用它的代码都放在这个类中, 在Servlet 3.0容器中不会被加载.
+ */
+class AsyncFileWriter implements WriteListener, AsyncListener {
+	private static Logger logger = LoggerFactory
+			.getLogger(AsyncFileWriter.class);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final AsyncContext asyncContext;
+	private final ServletOutputStream output;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final long end;
+	private long position;
+	private boolean closed;
+
+	private AsyncFileWriter(AsyncContext asyncContext,
+			ServletOutputStream output, RandomAccessFile file, long start,
+			long count) {
+		this.asyncContext = asyncContext;
+		this.output = output;
+		this.file = file;
+		this.channel = file.getChannel();
+		this.buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE,
+				Math.max(count, 1)));
+		this.position = start;
+		this.end = start + count;
+	}
+
+	/**
+	 * 开始异步输出文件从start开始的count个字节, 调用后请求进入异步模式, filter应直接返回.
+	 *
+	 * @param timeout
+	 *            异步超时时间(毫秒), 不大于0时使用容器的默认值
+	 */
+	static void start(HttpServletRequest req, HttpServletResponse resp,
+			File file, long start, long count, long timeout)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			AsyncContext asyncContext = req.startAsync(req, resp);
+			if (timeout > 0) {
+				asyncContext.setTimeout(timeout);
+			}
+			AsyncFileWriter writer = new AsyncFileWriter(asyncContext,
+					resp.getOutputStream(), raf, start, count);
+			asyncContext.addListener(writer);
+			writer.output.setWriteListener(writer);
+		} catch (IOException e) {
+			raf.close();
+			throw e;
+		} catch (RuntimeException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	public void onWritePossible() throws IOException {
+		while (output.isReady()) {
+			if (position >= end) {
+				close();
+				asyncContext.complete();
+				return;
+			}
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+			int n = channel.read(buffer, position);
+			if (n < 0) {
+				throw new EOFException("unexpected end of file at "
+						+ position);
+			}
+			output.write(buffer.array(), 0, n);
+			position += n;
+		}
+	}
+
+	public void onError(Throwable t) {
+		logger.debug("async static file transfer failed", t);
+		close();
+		asyncContext.complete();
+	}
+
+	public void onComplete(AsyncEvent event) {
+		close();
+	}
+
+	public void onTimeout(AsyncEvent event) {
+		close();
+	}
+
+	public void onError(AsyncEvent event) {
+		close();
+	}
+
+	public void onStartAsync(AsyncEvent event) {
+	}
+
+	private synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			file.close();
+		} catch (IOException e) {
+			logger.debug("failed to close " + file, e);
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package com.isharec.framework.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.isharec.framework.filter.CookieBasedSessionStore.CodecException;
+
+/**
+ * 紧凑的二进制格式, 每个值以一个字节的类型标记开头, 整数和日期使用zigzag变长编码.
+ *
+ * 支持的类型与JSON相同, 另外保留了Long和Date的类型; 其它对象按JSON的方式转换为Map.
+ */
+public class BinarySessionSerializer implements SessionSerializer {
+	public static final byte ID = 1;
+
+	private static final int NULL = 0;
+	private static final int TRUE = 1;
+	private static final int FALSE = 2;
+	private static final int INT = 3;
+	private static final int LONG = 4;
+	private static final int DOUBLE = 5;
+	private static final int STRING = 6;
+	private static final int DATE = 7;
+	private static final int LIST = 8;
+	private static final int MAP = 9;
+
+	// 嵌套层数限制, 避免构造的数据导致栈溢出
+	private static final int MAX_DEPTH = 32;
+
+	public byte getId() {
+		return ID;
+	}
+
+	public byte[] serialize(Map<String, Object> data) {
+		Output out = new Output();
+		writeMap(out, data, 0);
+		return out.toByteArray();
+	}
+
+	public Map<String, Object> deserialize(byte[] data, int offset, int length) {
+		Input in = new Input(data, offset, length);
+		Map<String, Object> result = readMap(in, 0);
+		if (in.pos != in.limit) {
+			throw new CodecException(new IllegalArgumentException(
+					"trailing bytes"));
+		}
+		return result;
+	}
+
+	private void writeMap(Output out, Map<?, ?> map, int depth) {
+		out.writeVarint(map.size());
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			out.writeString(String.valueOf(entry.getKey()));
+			writeValue(out, entry.getValue(), depth + 1);
+		}
+	}
+
+	private void writeValue(Output out, Object value, int depth) {
+		if (depth > MAX_DEPTH) {
+			throw new CodecException(new IllegalArgumentException(
+					"session data nested too deep"));
+		}
+		if (value == null) {
+			out.write(NULL);
+		} else if (value instanceof Boolean) {
+			out.write((Boolean) value ? TRUE : FALSE);
+		} else if (value instanceof Integer || value instanceof Short
+				|| value instanceof Byte) {
+			out.write(INT);
+			out.writeVarint(zigzag(((Number) value).longValue()));
+		} else if (value instanceof Long) {
+			out.write(LONG);
+			out.writeVarint(zigzag((Long) value));
+		} else if (value instanceof Double || value instanceof Float) {
+			out.write(DOUBLE);
+			out.writeLong(Double.doubleToLongBits(((Number) value)
+					.doubleValue()));
+		} else if (value instanceof String) {
+			out.write(STRING);
+			out.writeString((String) value);
+		} else if (value instanceof Date) {
+			out.write(DATE);
+			out.writeVarint(zigzag(((Date) value).getTime()));
+		} else if (value instanceof Map) {
+			out.write(MAP);
+			writeMap(out, (Map<?, ?>) value, depth);
+		} else if (value instanceof Collection) {
+			Collection<?> collection = (Collection<?>) value;
+			out.write(LIST);
+			out.writeVarint(collection.size());
+			for (Object item : collection) {
+				writeValue(out, item, depth + 1);
+			}
+		} else if (value.getClass().isArray()) {
+			int length = Array.getLength(value);
+			out.write(LIST);
+			out.writeVarint(length);
+			for (int i = 0; i < length; i++) {
+				writeValue(out, Array.get(value, i), depth + 1);
+			}
+		} else if (value instanceof Number || value instanceof Character
+				|| value instanceof Enum) {
+			// BigDecimal等, 与JSON一样不保留类型
+			out.write(STRING);
+			out.writeString(value.toString());
+		} else {
+			out.write(MAP);
+			writeMap(out, toMap(value), depth);
+		}
+	}
+
+	private Map<?, ?> toMap(Object bean) {
+		try {
+			return JsonSessionSerializer.mapper.convertValue(bean, Map.class);
+		} catch (IllegalArgumentException e) {
+			throw new CodecException(e);
+		}
+	}
+
+	/**
+	 * 保持序列化时的顺序, 再次序列化的结果与原内容相同.
+	 */
+	private Map<String, Object> readMap(Input in, int depth) {
+		int size = in.readSize();
+		Map<String, Object> map = new LinkedHashMap<String, Object>(Math.max(
+				size * 4 / 3 + 1, 16));
+		for (int i = 0; i < size; i++) {
+			String key = in.readString();
+			map.put(key, readValue(in, depth + 1));
+		}
+		return map;
+	}
+
+	private Object readValue(Input in, int depth) {
+		if (depth > MAX_DEPTH) {
+			throw new CodecException(new IllegalArgumentException(
+					"session data nested too deep"));
+		}
+		int tag = in.read();
+		switch (tag) {
+		case NULL:
+			return null;
+		case TRUE:
+			return Boolean.TRUE;
+		case FALSE:
+			return Boolean.FALSE;
+		case INT:
+			return (int) unzigzag(in.readVarint());
+		case LONG:
+			return unzigzag(in.readVarint());
+		case DOUBLE:
+			return Double.longBitsToDouble(in.readLong());
+		case STRING:
+			return in.readString();
+		case DATE:
+			return new Date(unzigzag(in.readVarint()));
+		case LIST:
+			int size = in.readSize();
+			List<Object> list = new ArrayList<Object>(size);
+			for (int i = 0; i < size; i++) {
+				list.add(readValue(in, depth + 1));
+			}
+			return list;
+		case MAP:
+			return readMap(in, depth);
+		default:
+			throw new CodecException(new IllegalArgumentException(
+					"unknown type " + tag));
+		}
+	}
+
+	private static long zigzag(long n) {
+		return (n << 1) ^ (n >> 63);
+	}
+
+	private static long unzigzag(long n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	private static class Output extends ByteArrayOutputStream {
+
+		Output() {
+			super(256);
+		}
+
+		void writeVarint(long value) {
+			while ((value & ~0x7FL) != 0) {
+				write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+
+		void writeLong(long value) {
+			for (int i = 56; i >= 0; i -= 8) {
+				write((int) (value >>> i));
+			}
+		}
+
+		void writeString(String value) {
+			byte[] bytes = value.getBytes(Charsets.UTF_8);
+			writeVarint(bytes.length);
+			write(bytes, 0, bytes.length);
+		}
+	}
+
+	private static class Input {
+		private final byte[] data;
+		private final int limit;
+		private int pos;
+
+		Input(byte[] data, int offset, int length) {
+			this.data = data;
+			this.pos = offset;
+			this.limit = offset + length;
+		}
+
+		int read() {
+			if (pos >= limit) {
+				throw new CodecException(new IllegalArgumentException(
+						"unexpected end of data"));
+			}
+			return data[pos++] & 0xFF;
+		}
+
+		long readVarint() {
+			long result = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = read();
+				result |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return result;
+				}
+			}
+			throw new CodecException(new IllegalArgumentException(
+					"malformed varint"));
+		}
+
+		long readLong() {
+			long result = 0;
+			for (int i = 0; i < 8; i++) {
+				result = (result << 8) | read();
+			}
+			return result;
+		}
+
+		/**
+		 * 读取元素个数或长度, 每个元素至少占一个字节, 超过剩余字节数的必然是错误数据.
+		 */
+		int readSize() {
+			long size = readVarint();
+			if (size < 0 || size > limit - pos) {
+				throw new CodecException(new IllegalArgumentException(
+						"invalid size " + size));
+			}
+			return (int) size;
+		}
+
+		String readString() {
+			int length = readSize();
+			String s = new String(data, pos, length, Charsets.UTF_8);
+			pos += length;
+			return s;
+		}
+	}
+}
@@ -1,13 +1,23 @@
 package com.isharec.framework.filter;
 
-import java.io.StringWriter;
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -17,12 +27,29 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
 import org.apache.commons.codec.binary.Base64;
-import org.codehaus.jackson.map.ObjectMapper;
+import org.apache.commons.lang3.SerializationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.web.servlet.FlashMap;
 
 import com.google.common.base.Charsets;
+import com.isharec.framework.utils.Digests;
 
 public class CookieBasedSessionStore {
+	private static Logger logger = LoggerFactory
+			.getLogger(CookieBasedSessionStore.class);
+
+	// 约10年
+	private static final int PERMANENT_MAX_AGE = 10 * 360 * 24 * 3600;
+	// 分段保存时, sessionKey对应的cookie值为"."加段数, 各段保存在sessionKey.0, sessionKey.1...中
+	private static final String CHUNK_MANIFEST_PREFIX = ".";
+	private static final int MAX_CHUNKS = 16;
+	// hybrid模式下cookie中保存引用id的键
+	private static final String OFFLOAD_KEY = "__ref";
+	// 请求属性, 保存从服务端恢复的内容的引用id, 内容不变时沿用
+	private static final String OFFLOAD_ATTRIBUTE = CookieBasedSessionStore.class
+			.getName() + ".OFFLOAD";
+	private static final String FLASH_KEY = "org.springframework.web.servlet.support.SessionFlashMapManager.FLASH_MAPS";
 
 	@SuppressWarnings("serial")
 	public static class CodecException extends RuntimeException {
@@ -32,109 +59,594 @@ public class CookieBasedSessionStore {
 		}
 	}
 
+	/**
+	 * 解码结果, 包括cookie的签发时间.
+	 */
+	public static class Payload {
+		private final Map<String, Object> data;
+		private final long issuedAt;
+		private final boolean valid;
+		private final byte[] body;
+		private final boolean oldKey;
+
+		public Payload(Map<String, Object> data, long issuedAt) {
+			this(data, issuedAt, true);
+		}
+
+		public Payload(Map<String, Object> data, long issuedAt, boolean valid) {
+			this(data, issuedAt, valid, null);
+		}
+
+		public Payload(Map<String, Object> data, long issuedAt,
+				boolean valid, byte[] body) {
+			this(data, issuedAt, valid, body, false);
+		}
+
+		private Payload(Map<String, Object> data, long issuedAt,
+				boolean valid, byte[] body, boolean oldKey) {
+			this.data = data;
+			this.issuedAt = issuedAt;
+			this.valid = valid;
+			this.body = body;
+			this.oldKey = oldKey;
+		}
+
+		Payload withOldKey() {
+			return new Payload(data, issuedAt, valid, body, true);
+		}
+
+		public Map<String, Object> getData() {
+			return data;
+		}
+
+		/**
+		 * 签发时间(毫秒), 旧版cookie没有记录, 为0.
+		 */
+		public long getIssuedAt() {
+			return issuedAt;
+		}
+
+		/**
+		 * 签名不符或格式错误时为false, 此时内容为空.
+		 */
+		public boolean isValid() {
+			return valid;
+		}
+
+		/**
+		 * 序列化后(压缩前)的内容, 旧版格式为null.
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+
+		/**
+		 * 是否由只用于校验的旧密钥验证, 这样的cookie需要用当前密钥重新签发.
+		 */
+		public boolean isOldKey() {
+			return oldKey;
+		}
+	}
+
+	/**
+	 * Cookie内容的编解码, 线程安全, 应当复用.
+	 *
+	 * 格式(掩码和Base64之前): 版本(1字节) + 序列化方式(1字节) + 标志(1字节) + 密钥id(1字节)
+	 * + 签发时间(4字节, 秒) + HMAC签名(32字节, ignoreSign时没有) + 内容, 签名覆盖头部和内容.
+	 * 版本1的格式没有密钥id; 旧版格式为 "签名--JSON" 的文本, 首字节是可打印字符. 这两种格式仍可解码.
+	 *
+	 * 支持多个密钥: 第一个用于签名, 其余的只用于校验, 更换密钥时已发出的cookie仍然有效.
+	 */
 	public static class Codec {
-		private final byte[] secret;
-		private final byte[] mask;
+		private static final String SIGN_ALGORITHM = "HmacSHA256";
+		private static final int FORMAT_VERSION = 2;
+		private static final int HEADER_LENGTH = 8;
+		private static final int V1_HEADER_LENGTH = 7;
+		private static final int SIGN_LENGTH = 32;
+		private static final int FLAG_DEFLATE = 1;
+		// 解压后的大小限制, 避免构造的数据占用大量内存
+		private static final int MAX_INFLATED_SIZE = 1024 * 1024;
+		// 超过这个大小的缓冲区用完即弃, 不在池中保留
+		private static final int MAX_BUFFER_SIZE = 64 * 1024;
+		// 池中保留的缓冲区数量, 超出的用完即弃
+		private static final int MAX_POOLED_BUFFERS = 32;
+
+		private static final char[] BASE64_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+				.toCharArray();
+		private static final byte[] BASE64_VALUES = new byte[128];
+		static {
+			Arrays.fill(BASE64_VALUES, (byte) -1);
+			for (int i = 0; i < BASE64_CHARS.length; i++) {
+				BASE64_VALUES[BASE64_CHARS[i]] = (byte) i;
+			}
+			BASE64_VALUES['+'] = 62;
+			BASE64_VALUES['/'] = 63;
+		}
+
+		/**
+		 * 编解码使用的缓冲区, 使用时从池中取出, 用完放回.
+		 */
+		private static class Buffers {
+			private byte[] bytes = new byte[4096];
+			private char[] chars = new char[5464];
+			final byte[] sign = new byte[SIGN_LENGTH];
+
+			byte[] bytes(int size) {
+				if (size <= bytes.length) {
+					return bytes;
+				}
+				if (size > MAX_BUFFER_SIZE) {
+					return new byte[size];
+				}
+				bytes = new byte[size];
+				return bytes;
+			}
+
+			char[] chars(int size) {
+				if (size <= chars.length) {
+					return chars;
+				}
+				if (size > MAX_BUFFER_SIZE) {
+					return new char[size];
+				}
+				chars = new char[size];
+				return chars;
+			}
+		}
+
+		/**
+		 * 一个密钥及其掩码, Mac不是线程安全的, 初始化好的实例放在池中复用.
+		 */
+		private static class Key {
+			final byte id;
+			final byte[] secret;
+			final byte[] mask;
+			final Queue<Mac> macs = new ConcurrentLinkedQueue<Mac>();
+
+			Key(byte[] secret, byte[] mask) {
+				this.id = Digests.sha1(secret)[0];
+				this.secret = secret;
+				this.mask = mask;
+			}
+		}
+
+		// 第一个为当前使用的密钥
+		private final Key[] keys;
 		private final Charset encoding;
+		private final SessionSerializer serializer;
+		// 解码时按头部中的标识选择, 包括内置的和配置的序列化方式
+		private final SessionSerializer[] serializers = new SessionSerializer[32];
+		// 缓冲区属于这个实例, 不放在ThreadLocal中, 应用卸载后不会被容器线程引用
+		private final BlockingQueue<Buffers> buffers = new ArrayBlockingQueue<Buffers>(
+				MAX_POOLED_BUFFERS);
+		// 旧版cookie使用
+		private final JsonSessionSerializer json = new JsonSessionSerializer();
+		private int compressThreshold;
 
 		public Codec(byte[] secret) {
-			this(secret, secret, Charsets.UTF_8);
+			this(secret, new BinarySessionSerializer());
+		}
+
+		public Codec(byte[] secret, SessionSerializer serializer) {
+			this(secret, secret, Charsets.UTF_8, serializer);
 		}
 
 		public Codec(byte[] secret, byte[] mask, Charset encoding) {
-			if (secret == null || mask == null) {
+			this(secret, mask, encoding, new BinarySessionSerializer());
+		}
+
+		public Codec(byte[] secret, byte[] mask, Charset encoding,
+				SessionSerializer serializer) {
+			this(new byte[][] { secret }, new byte[][] { mask }, encoding,
+					serializer);
+		}
+
+		/**
+		 * @param secrets
+		 *            第一个用于签名, 其余的只用于校验; 每个密钥同时作为自己的掩码
+		 */
+		public Codec(List<byte[]> secrets, SessionSerializer serializer) {
+			this(secrets.toArray(new byte[secrets.size()][]), secrets
+					.toArray(new byte[secrets.size()][]), Charsets.UTF_8,
+					serializer);
+		}
+
+		private Codec(byte[][] secrets, byte[][] masks, Charset encoding,
+				SessionSerializer serializer) {
+			if (secrets.length == 0 || serializer == null) {
 				throw new IllegalArgumentException();
 			}
-			this.secret = secret;
-			this.mask = mask;
+			if (serializer.getId() <= 0
+					|| serializer.getId() >= serializers.length) {
+				throw new IllegalArgumentException("invalid serializer id: "
+						+ serializer.getId());
+			}
+			this.keys = new Key[secrets.length];
+			for (int i = 0; i < secrets.length; i++) {
+				if (secrets[i] == null || masks[i] == null) {
+					throw new IllegalArgumentException();
+				}
+				keys[i] = new Key(secrets[i], masks[i]);
+				for (int j = 0; j < i; j++) {
+					if (keys[j].id == keys[i].id) {
+						throw new IllegalArgumentException(
+								"key id collision between secrets " + j
+										+ " and " + i
+										+ ", please choose another secret");
+					}
+				}
+			}
 			this.encoding = encoding;
+			this.serializer = serializer;
+			serializers[BinarySessionSerializer.ID] = new BinarySessionSerializer();
+			serializers[JsonSessionSerializer.ID] = json;
+			serializers[serializer.getId()] = serializer;
+		}
+
+		/**
+		 * 序列化后超过这个字节数时先用deflate压缩, 0表示不压缩. 应在使用前设置.
+		 */
+		public void setCompressThreshold(int compressThreshold) {
+			this.compressThreshold = compressThreshold;
 		}
 
 		public String encode(Map<String, Object> data, boolean ignoreSign) {
-			String value = serialize(data);
+			return encodeBody(serialize(data), ignoreSign);
+		}
+
+		/**
+		 * 用新cookie的序列化方式序列化内容, 结果可以与解码得到的Payload.getBody比较.
+		 */
+		public byte[] serialize(Map<String, Object> data) {
+			return serializer.serialize(data);
+		}
+
+		/**
+		 * 编码serialize的结果.
+		 */
+		public String encodeBody(byte[] body, boolean ignoreSign) {
+			Key key = keys[0];
+			int flags = 0;
+			if (compressThreshold > 0 && body.length > compressThreshold) {
+				byte[] compressed = deflate(body);
+				if (compressed.length < body.length) {
+					body = compressed;
+					flags |= FLAG_DEFLATE;
+				}
+			}
+			Buffers buffers = acquireBuffers();
+			try {
+				return encode(key, body, flags, ignoreSign, buffers);
+			} finally {
+				releaseBuffers(buffers);
+			}
+		}
 
+		private String encode(Key key, byte[] body, int flags,
+				boolean ignoreSign, Buffers buffers) {
+			int offset = HEADER_LENGTH + (ignoreSign ? 0 : SIGN_LENGTH);
+			int length = offset + body.length;
+			byte[] result = buffers.bytes(length);
+
+			result[0] = FORMAT_VERSION;
+			result[1] = serializer.getId();
+			result[2] = (byte) flags;
+			result[3] = key.id;
+			int issuedAt = (int) (System.currentTimeMillis() / 1000);
+			result[4] = (byte) (issuedAt >>> 24);
+			result[5] = (byte) (issuedAt >>> 16);
+			result[6] = (byte) (issuedAt >>> 8);
+			result[7] = (byte) issuedAt;
+			System.arraycopy(body, 0, result, offset, body.length);
 			if (!ignoreSign) {
-				String sign = doSign(value);
-				value = sign + "--" + value;
+				doSign(key, result, HEADER_LENGTH, offset, body.length, result,
+						HEADER_LENGTH);
 			}
-			byte[] result = doMask(value.getBytes(encoding));
 
-			return Base64.encodeBase64String(result);
+			doMask(result, length, key.mask);
+			return encodeBase64(result, length, buffers.chars((length + 2) / 3 * 4));
 		}
 
 		public Map<String, Object> decode(String value, boolean ignoreSign) {
+			return decodePayload(value, ignoreSign).getData();
+		}
+
+		/**
+		 * 解码失败或签名不符时返回空的内容.
+		 */
+		public Payload decodePayload(String value, boolean ignoreSign) {
+			return decodePayload(new String[] { value }, ignoreSign);
+		}
+
+		/**
+		 * 解码分段保存的内容, 各段依次解码到从池中取出的同一个数组中, 不拼接字符串.
+		 *
+		 * @param values
+		 *            按顺序排列的各段cookie值
+		 */
+		public Payload decodePayload(String[] values, boolean ignoreSign) {
+			Buffers buffers = acquireBuffers();
 			try {
-				byte[] data = Base64.decodeBase64(value.getBytes(encoding));
-				data = doMask(data);
-
-				String s = new String(data, encoding);
-				if (ignoreSign) {
-					return unserialize(s);
-				} else {
-					String[] parts = s.split("--", 2);
-					if (parts.length != 2) {
-						return new HashMap<String, Object>();
-					}
+				int length = 0;
+				for (String value : values) {
+					length += value.length();
+				}
+				byte[] data = buffers.bytes(length * 3 / 4 + 1);
+				length = decodeBase64(values, data);
+				if (length < 0) {
+					return new Payload(new HashMap<String, Object>(), 0, false);
+				}
 
-					String sign = parts[0];
-					String content = parts[1];
-					if (sign.equals(doSign(content))) {
-						return unserialize(content);
+				// 掩码与密钥对应, 依次尝试各个密钥, 通常第一个就能成功
+				for (int i = 0; i < keys.length; i++) {
+					Key key = keys[i];
+					doMask(data, length, key.mask);
+					Payload payload;
+					try {
+						payload = decode(key, data, length, ignoreSign,
+								buffers.sign);
+					} catch (CodecException e) {
+						payload = null;
+					}
+					if (payload != null) {
+						return i == 0 ? payload : payload.withOldKey();
 					}
+					doMask(data, length, key.mask);
 				}
-				return new HashMap<String, Object>();
 			} catch (Exception e) {
-				return new HashMap<String, Object>();
+				// 返回空的内容
+			} finally {
+				releaseBuffers(buffers);
+			}
+			return new Payload(new HashMap<String, Object>(), 0, false);
+		}
+
+		private Buffers acquireBuffers() {
+			Buffers result = buffers.poll();
+			return result != null ? result : new Buffers();
+		}
+
+		private void releaseBuffers(Buffers b) {
+			buffers.offer(b);
+		}
+
+		/**
+		 * 用指定的密钥解码, 格式不符或签名不符时返回null.
+		 */
+		private Payload decode(Key key, byte[] data, int length,
+				boolean ignoreSign, byte[] sign) {
+			if (length == 0) {
+				return null;
+			}
+			int headerLength;
+			int timeOffset;
+			if (data[0] == FORMAT_VERSION) {
+				if (length < HEADER_LENGTH || data[3] != key.id) {
+					return null;
+				}
+				headerLength = HEADER_LENGTH;
+				timeOffset = 4;
+			} else if (data[0] == 1) {
+				headerLength = V1_HEADER_LENGTH;
+				timeOffset = 3;
+			} else {
+				Map<String, Object> result = decodeLegacy(key, data, length,
+						ignoreSign);
+				return result == null ? null : new Payload(result, 0);
+			}
+
+			int offset = headerLength + (ignoreSign ? 0 : SIGN_LENGTH);
+			if (length < offset) {
+				return null;
+			}
+			int id = data[1];
+			SessionSerializer s = id > 0 && id < serializers.length ? serializers[id]
+					: null;
+			if (s == null) {
+				return null;
+			}
+			if (!ignoreSign) {
+				doSign(key, data, headerLength, offset, length - offset, sign, 0);
+				if (!isEqual(sign, data, headerLength)) {
+					return null;
+				}
+			}
+			long issuedAt = ((data[timeOffset] & 0xFFL) << 24)
+					| ((data[timeOffset + 1] & 0xFF) << 16)
+					| ((data[timeOffset + 2] & 0xFF) << 8)
+					| (data[timeOffset + 3] & 0xFF);
+			byte[] body;
+			if ((data[2] & FLAG_DEFLATE) != 0) {
+				body = inflate(data, offset, length - offset);
+			} else {
+				// data是池中复用的缓冲区, 内容需要复制
+				body = Arrays.copyOfRange(data, offset, length);
+			}
+			Map<String, Object> result = s.deserialize(body, 0, body.length);
+			return new Payload(result, issuedAt * 1000, true, body);
+		}
+
+		private Map<String, Object> decodeLegacy(Key key, byte[] data,
+				int length, boolean ignoreSign) {
+			String s = new String(data, 0, length, encoding);
+			if (ignoreSign) {
+				return unserialize(s);
+			}
+			int idx = s.indexOf("--");
+			if (idx == -1) {
+				return null;
+			}
+
+			byte[] sign = Base64.decodeBase64(s.substring(0, idx));
+			String content = s.substring(idx + 2);
+			byte[] bytes = content.getBytes(encoding);
+			byte[] expected = new byte[SIGN_LENGTH];
+			doSign(key, bytes, 0, 0, bytes.length, expected, 0);
+			if (sign.length == SIGN_LENGTH && isEqual(expected, sign, 0)) {
+				return unserialize(content);
+			}
+			return null;
+		}
+
+		/**
+		 * 比较expected与data中从offset开始的字节, 耗时与内容无关, 避免通过时间差猜测签名.
+		 */
+		private static boolean isEqual(byte[] expected, byte[] data, int offset) {
+			if (data.length - offset < expected.length) {
+				return false;
 			}
+			int result = 0;
+			for (int i = 0; i < expected.length; i++) {
+				result |= expected[i] ^ data[offset + i];
+			}
+			return result == 0;
 		}
 
-		private byte[] doMask(byte[] input) {
-			byte[] result = new byte[input.length];
+		/**
+		 * URL安全的Base64编码, 不带填充, cookie值不需要加引号.
+		 */
+		static String encodeBase64(byte[] data, int length, char[] out) {
+			int i = 0;
 			int j = 0;
-			for (int i = 0; i < input.length; i++) {
-				byte b = input[i];
-				result[i] = (byte) (b ^ mask[j]);
-				j = (j + 1) % mask.length;
+			for (; i + 3 <= length; i += 3) {
+				int v = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8
+						| (data[i + 2] & 0xFF);
+				out[j++] = BASE64_CHARS[v >>> 18];
+				out[j++] = BASE64_CHARS[(v >>> 12) & 0x3F];
+				out[j++] = BASE64_CHARS[(v >>> 6) & 0x3F];
+				out[j++] = BASE64_CHARS[v & 0x3F];
+			}
+			if (i < length) {
+				int v = (data[i] & 0xFF) << 16;
+				if (i + 1 < length) {
+					v |= (data[i + 1] & 0xFF) << 8;
+				}
+				out[j++] = BASE64_CHARS[v >>> 18];
+				out[j++] = BASE64_CHARS[(v >>> 12) & 0x3F];
+				if (i + 1 < length) {
+					out[j++] = BASE64_CHARS[(v >>> 6) & 0x3F];
+				}
+			}
+			return new String(out, 0, j);
+		}
+
+		/**
+		 * 依次解码各段Base64, 同时接受标准和URL安全的字符, 忽略填充.
+		 *
+		 * @return 解码后的长度, 有非法字符时返回-1
+		 */
+		static int decodeBase64(String[] values, byte[] out) {
+			int n = 0;
+			int bits = 0;
+			int acc = 0;
+			for (String value : values) {
+				for (int i = 0; i < value.length(); i++) {
+					char c = value.charAt(i);
+					if (c == '=') {
+						continue;
+					}
+					int v = c < 128 ? BASE64_VALUES[c] : -1;
+					if (v < 0) {
+						return -1;
+					}
+					acc = (acc << 6) | v;
+					bits += 6;
+					if (bits >= 8) {
+						bits -= 8;
+						out[n++] = (byte) (acc >>> bits);
+						acc &= (1 << bits) - 1;
+					}
+				}
 			}
-			return result;
+			return n;
 		}
 
-		private String doSign(String value) {
+		private static byte[] deflate(byte[] input) {
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
 			try {
-				Mac mac = Mac.getInstance("HmacSHA256");
-				SecretKeySpec secretKey = new SecretKeySpec(secret,
-						"HmacSHA256");
-				mac.init(secretKey);
-				return Base64.encodeBase64String(mac.doFinal(value
-						.getBytes(encoding)));
-			} catch (Exception e) {
-				throw new CodecException(e);
+				deflater.setInput(input);
+				deflater.finish();
+				ByteArrayOutputStream output = new ByteArrayOutputStream(
+						input.length / 2 + 16);
+				byte[] buffer = new byte[1024];
+				while (!deflater.finished()) {
+					int n = deflater.deflate(buffer);
+					output.write(buffer, 0, n);
+				}
+				return output.toByteArray();
+			} finally {
+				deflater.end();
 			}
 		}
 
-		private String serialize(Map<String, Object> data) {
+		private static byte[] inflate(byte[] input, int offset, int length) {
+			Inflater inflater = new Inflater(true);
 			try {
-				StringWriter writer = new StringWriter();
-				ObjectMapper mapper = new ObjectMapper();
-				mapper.writeValue(writer, data);
-				return writer.toString();
-			} catch (Exception e) {
+				inflater.setInput(input, offset, length);
+				ByteArrayOutputStream output = new ByteArrayOutputStream(
+						length * 3);
+				byte[] buffer = new byte[1024];
+				while (!inflater.finished()) {
+					int n = inflater.inflate(buffer);
+					if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						throw new CodecException(new DataFormatException(
+								"truncated data"));
+					}
+					output.write(buffer, 0, n);
+					if (output.size() > MAX_INFLATED_SIZE) {
+						throw new CodecException(new DataFormatException(
+								"inflated data too large"));
+					}
+				}
+				return output.toByteArray();
+			} catch (DataFormatException e) {
 				throw new CodecException(e);
+			} finally {
+				inflater.end();
 			}
 		}
 
-		@SuppressWarnings("unchecked")
-		private Map<String, Object> unserialize(String value) {
+		private static void doMask(byte[] data, int length, byte[] mask) {
+			int j = 0;
+			for (int i = 0; i < length; i++) {
+				data[i] = (byte) (data[i] ^ mask[j]);
+				j = (j + 1) % mask.length;
+			}
+		}
+
+		/**
+		 * 签名覆盖data中[0, headerLength)的头部和[bodyOffset, bodyOffset + bodyLength)的内容,
+		 * 结果写入out中从outOffset开始的32个字节.
+		 */
+		private static void doSign(Key key, byte[] data, int headerLength,
+				int bodyOffset, int bodyLength, byte[] out, int outOffset) {
+			Mac mac = key.macs.poll();
 			try {
-				ObjectMapper mapper = new ObjectMapper();
-				return mapper.readValue(value, HashMap.class);
+				if (mac == null) {
+					mac = Mac.getInstance(SIGN_ALGORITHM);
+					mac.init(new SecretKeySpec(key.secret, SIGN_ALGORITHM));
+				}
+				mac.update(data, 0, headerLength);
+				mac.update(data, bodyOffset, bodyLength);
+				mac.doFinal(out, outOffset);
+				key.macs.offer(mac);
 			} catch (Exception e) {
 				throw new CodecException(e);
 			}
 		}
+
+		private Map<String, Object> unserialize(String value) {
+			byte[] bytes = value.getBytes(encoding);
+			return json.deserialize(bytes, 0, bytes.length);
+		}
 	}
 
+	private final CookieSessionMetrics metrics = new CookieSessionMetrics();
+
 	private byte[] secret;
+	private List<byte[]> verifyOnlySecrets = new ArrayList<byte[]>();
+	private SessionSerializer serializer = new BinarySessionSerializer();
+	private Codec codec;
 
 	private String sessionKey;
 	private String cookiePath;
@@ -144,8 +656,87 @@ public class CookieBasedSessionStore {
 	private boolean permanent;
 	private boolean ignoreSign;
 
+	private int compressThreshold;
+	// 浏览器对单个cookie的限制约为4096字节, 包括名称和属性
+	private int chunkSize = 3800;
+	// 所有分段的总长度, 容器对请求头的总长度有限制(Tomcat默认为8KB)
+	private int maxSize = 6 * 1024;
+
+	private SessionOffloadStore offloadStore;
+	private int offloadThreshold = 256;
+
 	public void setSecret(byte[] secret) {
 		this.secret = secret;
+		initCodec();
+	}
+
+	/**
+	 * 只用于校验的旧密钥. 更换密钥时把原来的密钥放在这里, 已发出的cookie在下次写入时改用新密钥签名.
+	 */
+	public void setVerifyOnlySecrets(List<byte[]> verifyOnlySecrets) {
+		this.verifyOnlySecrets = verifyOnlySecrets;
+		initCodec();
+	}
+
+	/**
+	 * 新cookie使用的序列化方式, 默认为二进制格式. 已有cookie按其头部标识解码, 不受影响.
+	 */
+	public void setSerializer(SessionSerializer serializer) {
+		this.serializer = serializer;
+		initCodec();
+	}
+
+	/**
+	 * 序列化后超过这个字节数时压缩, 0表示不压缩.
+	 */
+	public void setCompressThreshold(int compressThreshold) {
+		this.compressThreshold = compressThreshold;
+		initCodec();
+	}
+
+	/**
+	 * 单个cookie值的最大长度, 超过时分成多个cookie保存.
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * 会话cookie值的最大总长度, 超过时hybrid模式下全部内容保存在服务端, 否则不保存本次的修改并记录错误.
+	 * 分段数也不能超过16. 应小于容器允许的请求头长度减去其他请求头的长度.
+	 */
+	public void setMaxSize(int maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize must be positive");
+		}
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * 设置后使用hybrid模式: 简单值保存在cookie中, 集合, 对象和较长的字符串保存在服务端.
+	 */
+	public void setOffloadStore(SessionOffloadStore offloadStore) {
+		this.offloadStore = offloadStore;
+	}
+
+	/**
+	 * hybrid模式下超过这个长度的字符串保存在服务端.
+	 */
+	public void setOffloadThreshold(int offloadThreshold) {
+		this.offloadThreshold = offloadThreshold;
+	}
+
+	private void initCodec() {
+		if (secret != null) {
+			List<byte[]> secrets = new ArrayList<byte[]>();
+			secrets.add(secret);
+			secrets.addAll(verifyOnlySecrets);
+			codec = new Codec(secrets, serializer);
+			codec.setCompressThreshold(compressThreshold);
+		}
 	}
 
 	public void setSessionKey(String sessionKey) {
@@ -172,47 +763,214 @@ public class CookieBasedSessionStore {
 		this.ignoreSign = ignoreSign;
 	}
 
+	public CookieSessionMetrics getMetrics() {
+		return metrics;
+	}
+
 	public void restore(HttpServletRequest req) {
 		req.getSession().invalidate();
 
-		Cookie c = findCookie(req);
-		if (c == null) {
+		String[] values = findCookieValues(req);
+		if (values == null) {
+			markClean(req.getSession(), 0, null, false);
 			return;
 		}
 
-		Codec codec = new Codec(secret);
-		Map<String, Object> data = codec.decode(c.getValue(), ignoreSign);
-		String flashKey = "org.springframework.web.servlet.support.SessionFlashMapManager.FLASH_MAPS";
-		if (data.containsKey(flashKey)) {
+		long start = System.nanoTime();
+		Payload payload = codec.decodePayload(values, ignoreSign);
+		metrics.recordDecode(System.nanoTime() - start, payload.isValid());
+		Map<String, Object> data = payload.getData();
+		Object ref = data.remove(OFFLOAD_KEY);
+		if (ref instanceof String && offloadStore != null) {
+			Map<String, Object> offloaded = offloadStore.get((String) ref);
+			if (offloaded != null) {
+				data.putAll(offloaded);
+				req.setAttribute(OFFLOAD_ATTRIBUTE, ref);
+			} else {
+				// 已过期或被缓存回收, 这部分会话内容丢失
+				metrics.recordMissingOffload();
+				logger.warn("offloaded session {} is missing, attributes kept in cookie: {}",
+						ref, data.keySet());
+			}
+		}
+		// 保存在cookie中的FlashMap被反序列化为普通的Map
+		if (data.containsKey(FLASH_KEY) && !isFlashMaps(data.get(FLASH_KEY))) {
 			@SuppressWarnings("unchecked")
 			List<Map<String, Object>> list = (List<Map<String, Object>>) data
-					.get(flashKey);
+					.get(FLASH_KEY);
 			List<FlashMap> flashMaps = new ArrayList<FlashMap>();
 			for (Map<String, Object> map : list) {
 				FlashMap flashMap = new FlashMap();
 				flashMap.putAll(map);
 				flashMaps.add(flashMap);
 			}
-			data.put(flashKey, flashMaps);
+			data.put(FLASH_KEY, flashMaps);
 		}
 		HttpSession session = req.getSession();
 		for (Map.Entry<String, Object> entry : data.entrySet()) {
 			session.setAttribute(entry.getKey(), entry.getValue());
 		}
+		markClean(session, payload.getIssuedAt(), payload.getBody(),
+				payload.isOldKey());
+	}
+
+	private static boolean isFlashMaps(Object value) {
+		if (!(value instanceof List)) {
+			return false;
+		}
+		for (Object item : (List<?>) value) {
+			if (!(item instanceof FlashMap)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * hybrid模式下需要保存在服务端的值.
+	 */
+	private boolean isOffloaded(Object value) {
+		if (value == null || value instanceof Number
+				|| value instanceof Boolean || value instanceof Date
+				|| value instanceof Enum) {
+			return false;
+		}
+		if (value instanceof String) {
+			return ((String) value).length() > offloadThreshold;
+		}
+		return true;
+	}
+
+	/**
+	 * 把需要保存在服务端的值从data中移到服务端, 在data中加入引用id.
+	 * 服务端的内容没有变化时沿用原来的引用id, 旧的条目不主动删除, 避免并发请求中仍使用旧cookie的请求丢失内容.
+	 *
+	 * @param all
+	 *            是否把所有值都保存在服务端, 用于cookie超出长度限制时
+	 * @return 值不能序列化时返回false
+	 */
+	private boolean offload(HttpServletRequest req, Map<String, Object> data,
+			int ttl, boolean all) {
+		Map<String, Object> values = new HashMap<String, Object>();
+		Iterator<Map.Entry<String, Object>> it = data.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Object> entry = it.next();
+			if (all || isOffloaded(entry.getValue())) {
+				values.put(entry.getKey(), entry.getValue());
+				it.remove();
+			}
+		}
+		if (values.isEmpty()) {
+			return true;
+		}
+
+		String ref = (String) req.getAttribute(OFFLOAD_ATTRIBUTE);
+		try {
+			data.put(OFFLOAD_KEY, offloadStore.put(ref, values, ttl));
+			return true;
+		} catch (SerializationException e) {
+			logger.error("failed to offload session attributes " + values.keySet()
+					+ ", changes are not saved", e);
+			return false;
+		}
+	}
+
+	private void markClean(HttpSession session, long issuedAt, byte[] body,
+			boolean reissue) {
+		if (session instanceof CookieSessionFilter.HttpSessionWrapper) {
+			((CookieSessionFilter.HttpSessionWrapper) session).markClean(
+					issuedAt, body, reissue);
+		}
+	}
+
+	/**
+	 * 内容没有变化时是否仍需重新签发: 只有持久cookie需要在过半有效期后续期.
+	 */
+	private boolean isExpiring(long issuedAt) {
+		return permanent
+				&& System.currentTimeMillis() - issuedAt > PERMANENT_MAX_AGE * 1000L / 2;
+	}
+
+	/**
+	 * 请求中是否有会话cookie, 不解码.
+	 */
+	public boolean hasSessionCookie(HttpServletRequest req) {
+		Cookie[] cookies = req.getCookies();
+		if (cookies != null) {
+			for (Cookie c : cookies) {
+				if (sessionKey.equals(c.getName())) {
+					return true;
+				}
+			}
+		}
+		return false;
 	}
 
-	private Cookie findCookie(HttpServletRequest req) {
+	/**
+	 * 按顺序返回保存会话的各段cookie值, 没有会话cookie或分段不完整时返回null.
+	 */
+	private String[] findCookieValues(HttpServletRequest req) {
 		Cookie[] cookies = req.getCookies();
 		if (cookies == null) {
 			return null;
 		}
 
+		String value = null;
 		for (Cookie c : cookies) {
 			if (sessionKey.equals(c.getName())) {
-				return c;
+				value = c.getValue();
+				break;
+			}
+		}
+		if (value == null || !value.startsWith(CHUNK_MANIFEST_PREFIX)) {
+			return value == null ? null : new String[] { value };
+		}
+
+		int count = parseChunkCount(value);
+		if (count <= 0 || count > MAX_CHUNKS) {
+			return null;
+		}
+		String[] values = new String[count];
+		String prefix = sessionKey + ".";
+		for (Cookie c : cookies) {
+			int index = chunkIndex(c.getName(), prefix);
+			if (index >= 0 && index < count) {
+				values[index] = c.getValue();
+			}
+		}
+		for (String v : values) {
+			if (v == null) {
+				return null;
+			}
+		}
+		return values;
+	}
+
+	private static int parseChunkCount(String manifest) {
+		try {
+			return Integer.parseInt(manifest.substring(CHUNK_MANIFEST_PREFIX
+					.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * 分段cookie名称中的序号, 不是分段cookie时返回-1.
+	 */
+	private static int chunkIndex(String name, String prefix) {
+		if (!name.startsWith(prefix) || name.length() == prefix.length()) {
+			return -1;
+		}
+		int index = 0;
+		for (int i = prefix.length(); i < name.length(); i++) {
+			char ch = name.charAt(i);
+			if (ch < '0' || ch > '9' || index > MAX_CHUNKS) {
+				return -1;
 			}
+			index = index * 10 + (ch - '0');
 		}
-		return null;
+		return index;
 	}
 
 	private void addCookie(HttpServletRequest req, HttpServletResponse resp,
@@ -233,9 +991,32 @@ public class CookieBasedSessionStore {
 		resp.addCookie(cookie);
 	}
 
+	/**
+	 * 会话内容有变化, 持久cookie将要过期或cookie由旧密钥签名时写入cookie, 否则不输出Set-Cookie.
+	 *
+	 * 只读取过可变的值时, 重新序列化后与cookie中的内容比较, 相同时也不输出.
+	 */
 	public void generate(HttpServletRequest req, HttpServletResponse resp) {
 		HttpSession session = req.getSession(true);
-		Map<String, Object> data = new HashMap<String, Object>();
+		boolean dirty = true;
+		boolean mutableRead = false;
+		boolean reissue = false;
+		byte[] restoredBody = null;
+		if (session instanceof CookieSessionFilter.HttpSessionWrapper) {
+			CookieSessionFilter.HttpSessionWrapper wrapper = (CookieSessionFilter.HttpSessionWrapper) session;
+			if (!wrapper.isLoaded()) {
+				// 没有访问过会话, 内容不会变化
+				metrics.recordSkipped();
+				return;
+			}
+			dirty = wrapper.isDirty();
+			mutableRead = wrapper.isMutableRead();
+			restoredBody = wrapper.getRestoredBody();
+			reissue = wrapper.isReissue();
+		}
+		long issuedAt = session.getCreationTime();
+		// 按会话中的顺序, 与恢复时的顺序一致
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
 		Enumeration<String> e = session.getAttributeNames();
 		while (e.hasMoreElements()) {
 			String name = e.nextElement();
@@ -243,36 +1024,106 @@ public class CookieBasedSessionStore {
 			data.put(name, value);
 		}
 
-		Codec codec = new Codec(secret);
-		String cookieValue = codec.encode(data, ignoreSign);
-		Cookie cookie = new Cookie(sessionKey, cookieValue);
+		// 旧密钥签名的cookie总是重新签发, 之后旧密钥才可以移除
+		boolean renew = !data.isEmpty()
+				&& (reissue || isExpiring(issuedAt));
+		if (!dirty && !mutableRead && !renew) {
+			metrics.recordUnchanged();
+			session.invalidate();
+			return;
+		}
 
-		if (permanent) {
-			cookie.setMaxAge(10 * 360 * 24 * 3600);
+		int chunks = 0;
+		if (data.isEmpty()) {
+			// 会话已清空, 删除cookie
+			addCookie(req, resp, sessionKey, "", 0);
+			String ref = (String) req.getAttribute(OFFLOAD_ATTRIBUTE);
+			if (ref != null) {
+				offloadStore.remove(ref);
+			}
 		} else {
-			cookie.setMaxAge(-1);
+			int maxAge = permanent ? PERMANENT_MAX_AGE : -1;
+			int ttl = permanent ? PERMANENT_MAX_AGE : 0;
+			Map<String, Object> cookieData = data;
+			if (offloadStore != null) {
+				cookieData = new LinkedHashMap<String, Object>(data);
+				if (!offload(req, cookieData, ttl, false)) {
+					session.invalidate();
+					return;
+				}
+			}
+			long start = System.nanoTime();
+			byte[] body = codec.serialize(cookieData);
+			if (!dirty && !renew && Arrays.equals(body, restoredBody)) {
+				metrics.recordUnchanged();
+				session.invalidate();
+				return;
+			}
+			String value = codec.encodeBody(body, ignoreSign);
+			if (!isWithinLimit(value) && offloadStore != null) {
+				// cookie中放不下, 全部保存在服务端
+				cookieData = new LinkedHashMap<String, Object>(data);
+				if (!offload(req, cookieData, ttl, true)) {
+					session.invalidate();
+					return;
+				}
+				value = codec.encode(cookieData, ignoreSign);
+			}
+			metrics.recordEncode(System.nanoTime() - start, value.length());
+			if (!isWithinLimit(value)) {
+				// 写入后浏览器或容器会丢弃, 下次请求时会话丢失; 保留原来的cookie
+				logger.error(
+						"cookie session is too large ({} chars, max {}), changes are not saved, attributes: {}",
+						value.length(), Math.min(maxSize, MAX_CHUNKS * chunkSize),
+						data.keySet());
+				session.invalidate();
+				return;
+			}
+			if (value.length() <= chunkSize) {
+				addCookie(req, resp, sessionKey, value, maxAge);
+			} else {
+				chunks = (value.length() + chunkSize - 1) / chunkSize;
+				addCookie(req, resp, sessionKey, CHUNK_MANIFEST_PREFIX
+						+ chunks, maxAge);
+				for (int i = 0; i < chunks; i++) {
+					addCookie(req, resp, sessionKey + "." + i,
+							value.substring(i * chunkSize,
+									Math.min(value.length(), (i + 1)
+											* chunkSize)), maxAge);
+				}
+			}
 		}
-		addCookie(req, resp, cookie);
+		expireChunks(req, resp, chunks);
 
 		session.invalidate();
 	}
 
-	public static void main(String[] args) throws Exception {
-		byte[] secret = "1234klsf9rieiowrjjsdf".getBytes();
-		Map<String, Object> data = new HashMap<String, Object>();
-		data.put("uid", 1);
-		data.put("message", "hello, world!");
-		data.put("updated", new Date());
-
-		Codec codec = new Codec(secret);
+	private boolean isWithinLimit(String value) {
+		return value.length() <= maxSize
+				&& (value.length() + chunkSize - 1) / chunkSize <= MAX_CHUNKS;
+	}
 
-		for (boolean ignoreSign : new boolean[] { true, false }) {
-			String result = codec.encode(data, ignoreSign);
-			System.out.println("encoded result: " + result + ", ignoreSign: "
-					+ ignoreSign);
+	private void addCookie(HttpServletRequest req, HttpServletResponse resp,
+			String name, String value, int maxAge) {
+		Cookie cookie = new Cookie(name, value);
+		cookie.setMaxAge(maxAge);
+		addCookie(req, resp, cookie);
+	}
 
-			Map<String, Object> decoded = codec.decode(result, ignoreSign);
-			System.out.println(decoded);
+	/**
+	 * 删除请求中序号不小于from的分段cookie.
+	 */
+	private void expireChunks(HttpServletRequest req,
+			HttpServletResponse resp, int from) {
+		Cookie[] cookies = req.getCookies();
+		if (cookies == null) {
+			return;
+		}
+		String prefix = sessionKey + ".";
+		for (Cookie c : cookies) {
+			if (chunkIndex(c.getName(), prefix) >= from) {
+				addCookie(req, resp, c.getName(), "", 0);
+			}
 		}
 	}
 
@@ -1,15 +1,16 @@
 package com.isharec.framework.filter;
 
-import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Vector;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
@@ -18,22 +19,69 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 import javax.servlet.http.HttpSession;
 
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Ehcache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
 import com.google.common.base.Charsets;
 
+/**
+ * 替换容器的HttpSession, 禁止生成JSESSIONID cookie. 会话的保存方式由mode参数决定:
+ *
+ * <ul>
+ * <li>none: 会话只在当前请求中有效, 不保存</li>
+ * <li>cookie(默认): 会话内容签名后保存在cookie中</li>
+ * <li>hybrid: 小的值保存在cookie中, 其他的保存在服务端缓存中</li>
+ * </ul>
+ */
 public class CookieSessionFilter implements Filter {
+	private static Logger logger = LoggerFactory
+			.getLogger(CookieSessionFilter.class);
+
+	public static final String MODE_NONE = "none";
+	public static final String MODE_COOKIE = "cookie";
+	public static final String MODE_HYBRID = "hybrid";
 	public static final String DEFAULT_SESSION_KEY = "s";
+	public static final String DEFAULT_OFFLOAD_CACHE = "sessionCache";
+	public static final String METRICS_ATTRIBUTE = CookieSessionFilter.class
+			.getName() + ".METRICS";
 	private CookieBasedSessionStore store;
 
 	private Pattern pathPattern;
 	private Pattern excludePattern;
+	private PathPatterns paths;
+	private PathPatterns excludePaths;
+	private ServletContext servletContext;
+	private ObjectName objectName;
 
 	public void init(FilterConfig filterConfig) throws ServletException {
+		String mode = getMode(filterConfig);
+		if (!MODE_NONE.equals(mode) && !MODE_COOKIE.equals(mode)
+				&& !MODE_HYBRID.equals(mode)) {
+			throw new ServletException("invalid session mode: " + mode);
+		}
+
+		pathPattern = initPattern(filterConfig, "pathPattern");
+		excludePattern = initPattern(filterConfig, "excludePattern");
+		// Ant风格的路径, 不包括contextPath, 多个用逗号分隔, 如: /assets/**,/userfiles/
+		paths = PathPatterns.compile(filterConfig.getInitParameter("paths"));
+		excludePaths = PathPatterns.compile(filterConfig
+				.getInitParameter("excludePaths"));
+		if (MODE_NONE.equals(mode)) {
+			return;
+		}
+
 		String secret = filterConfig.getInitParameter("secret");
 		if (secret == null) {
 			throw new IllegalArgumentException(
@@ -47,7 +95,20 @@ public class CookieSessionFilter implements Filter {
 		String permanentParameter = filterConfig.getInitParameter("permanent");
 		boolean permanent = Boolean.valueOf(permanentParameter);
 		store = new CookieBasedSessionStore();
+		store.setSerializer(initSerializer(filterConfig
+				.getInitParameter("serializer")));
 		store.setSecret(secret.getBytes(Charsets.UTF_8));
+		String verifyOnlySecrets = filterConfig
+				.getInitParameter("verifyOnlySecrets");
+		if (verifyOnlySecrets != null) {
+			List<byte[]> secrets = new ArrayList<byte[]>();
+			for (String s : verifyOnlySecrets.split(",")) {
+				if (!s.trim().isEmpty()) {
+					secrets.add(s.trim().getBytes(Charsets.UTF_8));
+				}
+			}
+			store.setVerifyOnlySecrets(secrets);
+		}
 		store.setSessionKey(sessionKey);
 		store.setCookiePath(filterConfig.getInitParameter("cookiePath"));
 		store.setDomain(filterConfig.getInitParameter("domain"));
@@ -56,9 +117,76 @@ public class CookieSessionFilter implements Filter {
 		store.setPermanent(permanent);
 		store.setIgnoreSign(Boolean.valueOf(filterConfig
 				.getInitParameter("ignoreSign")));
+		String compressThreshold = filterConfig
+				.getInitParameter("compressThreshold");
+		if (compressThreshold != null) {
+			store.setCompressThreshold(Integer.parseInt(compressThreshold));
+		}
+		String chunkSize = filterConfig.getInitParameter("chunkSize");
+		if (chunkSize != null) {
+			store.setChunkSize(Integer.parseInt(chunkSize));
+		}
+		String maxSize = filterConfig.getInitParameter("maxSize");
+		if (maxSize != null) {
+			store.setMaxSize(Integer.parseInt(maxSize));
+		}
+		if (MODE_HYBRID.equals(mode)) {
+			store.setOffloadStore(new SessionOffloadStore(initOffloadCache(
+					filterConfig)));
+			String offloadThreshold = filterConfig
+					.getInitParameter("offloadThreshold");
+			if (offloadThreshold != null) {
+				store.setOffloadThreshold(Integer.parseInt(offloadThreshold));
+			}
+		}
+		initMetrics(filterConfig);
+	}
 
-		pathPattern = initPattern(filterConfig, "pathPattern");
-		excludePattern = initPattern(filterConfig, "excludePattern");
+	/**
+	 * none, cookie或hybrid, 默认为cookie.
+	 */
+	protected String getMode(FilterConfig filterConfig) {
+		String mode = filterConfig.getInitParameter("mode");
+		return mode != null ? mode : MODE_COOKIE;
+	}
+
+	/**
+	 * binary(默认), json, 或SessionSerializer实现类的全名.
+	 */
+	private SessionSerializer initSerializer(String config)
+			throws ServletException {
+		if (config == null || "binary".equals(config)) {
+			return new BinarySessionSerializer();
+		}
+		if ("json".equals(config)) {
+			return new JsonSessionSerializer();
+		}
+		try {
+			return Class.forName(config).asSubclass(SessionSerializer.class)
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new ServletException("invalid session serializer: "
+					+ config, e);
+		} catch (ClassCastException e) {
+			throw new ServletException("invalid session serializer: "
+					+ config, e);
+		}
+	}
+
+	/**
+	 * hybrid模式使用的缓存, 优先使用Spring中配置的CacheManager, 缓存名称默认为sessionCache.
+	 */
+	private Ehcache initOffloadCache(FilterConfig filterConfig) {
+		String name = filterConfig.getInitParameter("offloadCache");
+		if (name == null) {
+			name = DEFAULT_OFFLOAD_CACHE;
+		}
+		WebApplicationContext context = WebApplicationContextUtils
+				.getWebApplicationContext(filterConfig.getServletContext());
+		CacheManager cacheManager = context != null ? context
+				.getBean(CacheManager.class) : CacheManager.getInstance();
+		cacheManager.addCacheIfAbsent(name);
+		return cacheManager.getEhcache(name);
 	}
 
 	private Pattern initPattern(FilterConfig filterConfig, String parameterName) {
@@ -69,20 +197,55 @@ public class CookieSessionFilter implements Filter {
 		return null;
 	}
 
+	/**
+	 * 注册JMX, 并把统计放在ServletContext中, 供管理页面读取.
+	 */
+	private void initMetrics(FilterConfig filterConfig) {
+		servletContext = filterConfig.getServletContext();
+		servletContext.setAttribute(METRICS_ATTRIBUTE, store.getMetrics());
+		try {
+			ObjectName name = new ObjectName(
+					"com.isharec.framework:type=CookieSession,name="
+							+ ObjectName.quote(filterConfig.getFilterName()));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(store.getMetrics(), name);
+			objectName = name;
+		} catch (Exception e) {
+			logger.warn("failed to register cookie session metrics", e);
+		}
+	}
+
 	public void destroy() {
+		if (store == null) {
+			return;
+		}
+		logger.info("cookie session: {}", store.getMetrics());
+		servletContext.removeAttribute(METRICS_ATTRIBUTE);
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(
+						objectName);
+			} catch (Exception e) {
+				logger.warn("failed to unregister cookie session metrics", e);
+			}
+		}
 	}
 
 	public void doFilter(ServletRequest request, ServletResponse response,
 			FilterChain chain) throws IOException, ServletException {
 		if (isPathMatch((HttpServletRequest) request)) {
 			RequestWrapper requestWrapper = new RequestWrapper(
-					(HttpServletRequest) request);
-			store.restore(requestWrapper);
-
+					(HttpServletRequest) request, store);
 			ResponseWrapper responseWrapper = new ResponseWrapper(store,
 					requestWrapper, (HttpServletResponse) response);
 			chain.doFilter(requestWrapper, responseWrapper);
-			responseWrapper.flushBuffer();
+			// 异步请求由异步处理完成输出
+			if (!requestWrapper.isAsyncStarted()) {
+				responseWrapper.flushBuffer();
+			}
 		} else {
 			chain.doFilter(request, response);
 		}
@@ -90,33 +253,108 @@ public class CookieSessionFilter implements Filter {
 
 	private boolean isPathMatch(HttpServletRequest request) {
 		String uri = request.getRequestURI();
+		String path = null;
+		if (paths != null || excludePaths != null) {
+			path = uri.substring(request.getContextPath().length());
+		}
+		if (excludePaths != null && excludePaths.matches(path)) {
+			return false;
+		}
 		if (excludePattern != null) {
 			Matcher m = excludePattern.matcher(uri);
 			if (m.find()) {
 				return false;
 			}
 		}
-		
-		if (pathPattern == null) {
+
+		if (pathPattern == null && paths == null) {
 			return true;
 		}
-		Matcher m = pathPattern.matcher(uri);
-		return m.find();
+		if (paths != null && paths.matches(path)) {
+			return true;
+		}
+		return pathPattern != null && pathPattern.matcher(uri).find();
 	}
 
 	/**
 	 * 禁止生成JSESSIONID cookie.
+	 *
+	 * 记录会话是否被修改, 没有修改时不重新生成cookie. 通过getAttribute取出的可变对象可能被直接修改,
+	 * 这时只做标记, 生成cookie时重新序列化并与原内容比较.
+	 *
+	 * cookie在第一次访问会话内容时才解码和校验, 没有用到会话的请求不需要解码.
 	 */
 	static class HttpSessionWrapper implements HttpSession {
-		private Map<String, Object> data = new HashMap<String, Object>();
+		private final SessionAttributes data = new SessionAttributes();
 		private HttpServletRequestWrapper req;
+		private long creationTime;
+		private boolean dirty;
+		// 取出过可变的值
+		private boolean mutableRead;
+		// 从cookie恢复时序列化的内容
+		private byte[] restoredBody;
+		// 内容没有变化也需要重新签发
+		private boolean reissue;
+		// 不为null时表示还没有从cookie恢复
+		private CookieBasedSessionStore store;
 
 		public HttpSessionWrapper(HttpServletRequestWrapper req) {
 			this.req = req;
 		}
 
+		/**
+		 * 第一次访问会话内容时从store恢复.
+		 */
+		void restoreLazily(CookieBasedSessionStore store) {
+			this.store = store;
+		}
+
+		boolean isLoaded() {
+			return store == null;
+		}
+
+		private void load() {
+			if (store != null) {
+				CookieBasedSessionStore s = store;
+				store = null;
+				s.restore(req);
+			}
+		}
+
+		void markClean(long creationTime, byte[] restoredBody, boolean reissue) {
+			this.creationTime = creationTime;
+			this.restoredBody = restoredBody;
+			this.reissue = reissue;
+			this.dirty = false;
+			this.mutableRead = false;
+		}
+
+		boolean isDirty() {
+			return dirty;
+		}
+
+		boolean isMutableRead() {
+			return mutableRead;
+		}
+
+		byte[] getRestoredBody() {
+			return restoredBody;
+		}
+
+		boolean isReissue() {
+			return reissue;
+		}
+
+		private static boolean isImmutable(Object value) {
+			return value == null || value instanceof String
+					|| value instanceof Boolean || value instanceof Integer
+					|| value instanceof Long || value instanceof Double
+					|| value instanceof Enum;
+		}
+
 		public long getCreationTime() {
-			return 0;
+			load();
+			return creationTime;
 		}
 
 		public String getId() {
@@ -144,7 +382,12 @@ public class CookieSessionFilter implements Filter {
 		}
 
 		public Object getAttribute(String name) {
-			return data.get(name);
+			load();
+			Object value = data.get(name);
+			if (!isImmutable(value)) {
+				mutableRead = true;
+			}
+			return value;
 		}
 
 		public Object getValue(String name) {
@@ -152,15 +395,22 @@ public class CookieSessionFilter implements Filter {
 		}
 
 		public Enumeration<String> getAttributeNames() {
-			return new Vector<String>(data.keySet()).elements();
+			load();
+			return data.getNameEnumeration();
 		}
 
 		public String[] getValueNames() {
-			return data.keySet().toArray(new String[0]);
+			load();
+			return data.getNames();
 		}
 
 		public void setAttribute(String name, Object value) {
-			data.put(name, value);
+			load();
+			Object old = data.put(name, value);
+			if (value == null ? old != null : !isImmutable(value)
+					|| !value.equals(old)) {
+				dirty = true;
+			}
 		}
 
 		public void putValue(String name, Object value) {
@@ -168,7 +418,11 @@ public class CookieSessionFilter implements Filter {
 		}
 
 		public void removeAttribute(String name) {
-			data.remove(name);
+			load();
+			if (data.containsKey(name)) {
+				data.remove(name);
+				dirty = true;
+			}
 		}
 
 		public void removeValue(String name) {
@@ -176,7 +430,11 @@ public class CookieSessionFilter implements Filter {
 		}
 
 		public void invalidate() {
-			data.clear();
+			load();
+			if (!data.isEmpty()) {
+				data.clear();
+				dirty = true;
+			}
 		}
 
 		public boolean isNew() {
@@ -185,45 +443,71 @@ public class CookieSessionFilter implements Filter {
 
 	}
 
+	/**
+	 * 会话在第一次调用getSession时创建. getSession(false)在请求中没有会话cookie且还未创建会话时返回null,
+	 * Spring和Shiro在每个请求中都会调用, 不会因此创建会话或解码cookie.
+	 */
 	static class RequestWrapper extends HttpServletRequestWrapper {
-		private HttpSessionWrapper session = new HttpSessionWrapper(this);
-
-		public RequestWrapper(HttpServletRequest request) {
+		private final CookieBasedSessionStore store;
+		private HttpSessionWrapper session;
+
+		/**
+		 * @param store
+		 *            为null时会话不保存
+		 */
+		public RequestWrapper(HttpServletRequest request,
+				CookieBasedSessionStore store) {
 			super(request);
+			this.store = store;
 		}
 
 		@Override
 		public HttpSessionWrapper getSession() {
+			if (session == null) {
+				session = new HttpSessionWrapper(this);
+				if (store != null) {
+					session.restoreLazily(store);
+				}
+			}
 			return session;
 		}
 
 		@Override
 		public HttpSessionWrapper getSession(boolean create) {
-			return session;
+			if (!create && session == null
+					&& (store == null || !store.hasSessionCookie(this))) {
+				return null;
+			}
+			return getSession();
 		}
 	}
 
 	/**
 	 * 覆盖encode*Url, 禁止通过urlrewrite加入jsessionid.
+	 *
+	 * 输出流和Writer都直接使用容器的, 不再额外缓冲; 在第一次写出内容, flush或发送错误/跳转之前写入会话cookie,
+	 * 之后的写出只多一次标志判断.
 	 */
 	static class ResponseWrapper extends HttpServletResponseWrapper {
-		private final ServletOutputStreamWrapper output;
-		private final PrintWriter writer;
+		private ServletOutputStreamWrapper output;
+		private PrintWriter writer;
 
 		private final CookieBasedSessionStore store;
 		private final HttpServletRequest req;
 		private final HttpServletResponse resp;
 		private boolean sessionSaved;
 
+		/**
+		 * @param store
+		 *            为null时不输出会话cookie
+		 */
 		public ResponseWrapper(CookieBasedSessionStore store,
-				HttpServletRequest req, HttpServletResponse resp)
-				throws IOException {
+				HttpServletRequest req, HttpServletResponse resp) {
 			super(resp);
-			output = new ServletOutputStreamWrapper(resp.getOutputStream());
 			this.store = store;
 			this.req = req;
 			this.resp = resp;
-			writer = new PrintWriter(output, true);
+			this.sessionSaved = store == null;
 		}
 
 		@Override
@@ -248,18 +532,27 @@ public class CookieSessionFilter implements Filter {
 
 		@Override
 		public ServletOutputStream getOutputStream() throws IOException {
+			if (output == null) {
+				output = new ServletOutputStreamWrapper(super.getOutputStream());
+			}
 			return output;
 		}
 
 		@Override
 		public PrintWriter getWriter() throws IOException {
+			if (writer == null) {
+				writer = new PrintWriterWrapper(super.getWriter());
+			}
 			return writer;
 		}
 
 		@Override
 		public void flushBuffer() throws IOException {
 			flushSessionCookie();
-			writer.flush();
+			if (writer != null) {
+				writer.flush();
+			}
+			super.flushBuffer();
 		}
 
 		@Override
@@ -282,30 +575,101 @@ public class CookieSessionFilter implements Filter {
 
 		private void flushSessionCookie() {
 			if (!sessionSaved) {
-				store.generate(req, resp);
 				sessionSaved = true;
+				store.generate(req, resp);
 			}
 		}
 
 		class ServletOutputStreamWrapper extends ServletOutputStream {
-			private final FilterOutputStream output;
+			private final ServletOutputStream output;
 
 			public ServletOutputStreamWrapper(ServletOutputStream output) {
-				this.output = new FilterOutputStream(output);
+				this.output = output;
+			}
+
+			@Override
+			public boolean isReady() {
+				return output.isReady();
+			}
+
+			@Override
+			public void setWriteListener(WriteListener writeListener) {
+				output.setWriteListener(writeListener);
 			}
 
 			@Override
 			public void write(int b) throws IOException {
-				flushSessionCookie();
+				if (!sessionSaved) {
+					flushSessionCookie();
+				}
 				output.write(b);
 			}
 
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if (!sessionSaved) {
+					flushSessionCookie();
+				}
+				output.write(b, off, len);
+			}
+
 			@Override
 			public void flush() throws IOException {
 				flushSessionCookie();
 				output.flush();
 			}
 
+			@Override
+			public void close() throws IOException {
+				flushSessionCookie();
+				output.close();
+			}
+		}
+
+		/**
+		 * print/println等方法最终都调用这几个write方法.
+		 */
+		class PrintWriterWrapper extends PrintWriter {
+
+			public PrintWriterWrapper(PrintWriter writer) {
+				super(writer, false);
+			}
+
+			@Override
+			public void write(int c) {
+				if (!sessionSaved) {
+					flushSessionCookie();
+				}
+				super.write(c);
+			}
+
+			@Override
+			public void write(char[] buf, int off, int len) {
+				if (!sessionSaved) {
+					flushSessionCookie();
+				}
+				super.write(buf, off, len);
+			}
+
+			@Override
+			public void write(String s, int off, int len) {
+				if (!sessionSaved) {
+					flushSessionCookie();
+				}
+				super.write(s, off, len);
+			}
+
+			@Override
+			public void flush() {
+				flushSessionCookie();
+				super.flush();
+			}
+
+			@Override
+			public void close() {
+				flushSessionCookie();
+				super.close();
+			}
 		}
 
 	}
@@ -0,0 +1,140 @@
+package com.isharec.framework.filter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cookie会话的统计: 解码/编码耗时, 写出的cookie大小, 校验失败和跳过解码的次数.
+ */
+public class CookieSessionMetrics implements CookieSessionMetricsMBean {
+	private static final long COOKIE_LIMIT = 4096;
+
+	private final AtomicLong skippedDecodes = new AtomicLong();
+	private final AtomicLong signatureFailures = new AtomicLong();
+	private final AtomicLong unchanged = new AtomicLong();
+	private final AtomicLong missingOffloads = new AtomicLong();
+	private final Histogram decodeMicros = new Histogram(10, 25, 50, 100,
+			250, 500, 1000, 2500, 5000, 10000);
+	private final Histogram encodeMicros = new Histogram(10, 25, 50, 100,
+			250, 500, 1000, 2500, 5000, 10000);
+	private final Histogram cookieSize = new Histogram(256, 512, 1024, 2048,
+			3072, COOKIE_LIMIT, 8192, 16384, 32768);
+
+	void recordDecode(long nanos, boolean valid) {
+		decodeMicros.record(nanos / 1000);
+		if (!valid) {
+			signatureFailures.incrementAndGet();
+		}
+	}
+
+	void recordEncode(long nanos, int size) {
+		encodeMicros.record(nanos / 1000);
+		cookieSize.record(size);
+	}
+
+	void recordSkipped() {
+		skippedDecodes.incrementAndGet();
+	}
+
+	void recordUnchanged() {
+		unchanged.incrementAndGet();
+	}
+
+	void recordMissingOffload() {
+		missingOffloads.incrementAndGet();
+	}
+
+	public long getDecodeCount() {
+		return decodeMicros.getCount();
+	}
+
+	public long getSkippedDecodeCount() {
+		return skippedDecodes.get();
+	}
+
+	public long getSignatureFailureCount() {
+		return signatureFailures.get();
+	}
+
+	public long getEncodeCount() {
+		return encodeMicros.getCount();
+	}
+
+	public long getUnchangedCount() {
+		return unchanged.get();
+	}
+
+	public long getMissingOffloadCount() {
+		return missingOffloads.get();
+	}
+
+	public double getDecodeMeanMicros() {
+		return decodeMicros.getMean();
+	}
+
+	public long getDecodeP99Micros() {
+		return decodeMicros.getPercentile(99);
+	}
+
+	public double getEncodeMeanMicros() {
+		return encodeMicros.getMean();
+	}
+
+	public long getEncodeP99Micros() {
+		return encodeMicros.getPercentile(99);
+	}
+
+	public double getCookieSizeMean() {
+		return cookieSize.getMean();
+	}
+
+	public long getCookieSizeP99() {
+		return cookieSize.getPercentile(99);
+	}
+
+	public long getCookieSizeMax() {
+		return cookieSize.getMax();
+	}
+
+	public long getOversizedCookieCount() {
+		return cookieSize.getCountAbove(COOKIE_LIMIT);
+	}
+
+	/**
+	 * 纯文本格式的统计, 每行一项.
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("cookie_session_skipped_decodes ")
+				.append(skippedDecodes.get()).append('\n');
+		sb.append("cookie_session_signature_failures ")
+				.append(signatureFailures.get()).append('\n');
+		sb.append("cookie_session_unchanged ").append(unchanged.get())
+				.append('\n');
+		sb.append("cookie_session_missing_offloads ")
+				.append(missingOffloads.get()).append('\n');
+		decodeMicros.appendTo(sb, "cookie_session_decode_us");
+		encodeMicros.appendTo(sb, "cookie_session_encode_us");
+		cookieSize.appendTo(sb, "cookie_session_size_bytes");
+		return sb.toString();
+	}
+
+	public void reset() {
+		skippedDecodes.set(0);
+		signatureFailures.set(0);
+		unchanged.set(0);
+		missingOffloads.set(0);
+		decodeMicros.reset();
+		encodeMicros.reset();
+		cookieSize.reset();
+	}
+
+	@Override
+	public String toString() {
+		return "decodes=" + getDecodeCount() + ", skipped="
+				+ getSkippedDecodeCount() + ", signatureFailures="
+				+ getSignatureFailureCount() + ", encodes=" + getEncodeCount()
+				+ ", unchanged=" + getUnchangedCount() + ", missingOffloads="
+				+ getMissingOffloadCount() + ", cookieSizeP99="
+				+ getCookieSizeP99();
+	}
+}
@@ -0,0 +1,45 @@
+package com.isharec.framework.filter;
+
+/**
+ * Cookie会话的JMX接口, 耗时单位为微秒, 大小单位为字节.
+ */
+public interface CookieSessionMetricsMBean {
+
+	long getDecodeCount();
+
+	long getSkippedDecodeCount();
+
+	long getSignatureFailureCount();
+
+	long getEncodeCount();
+
+	long getUnchangedCount();
+
+	/**
+	 * hybrid模式下服务端内容已过期或被回收的次数, 这些请求丢失了保存在服务端的会话内容.
+	 */
+	long getMissingOffloadCount();
+
+	double getDecodeMeanMicros();
+
+	long getDecodeP99Micros();
+
+	double getEncodeMeanMicros();
+
+	long getEncodeP99Micros();
+
+	double getCookieSizeMean();
+
+	long getCookieSizeP99();
+
+	long getCookieSizeMax();
+
+	/**
+	 * 超过4096字节, 需要分段保存的cookie数.
+	 */
+	long getOversizedCookieCount();
+
+	String report();
+
+	void reset();
+}
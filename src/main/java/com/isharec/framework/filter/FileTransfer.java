@@ -0,0 +1,71 @@
+package com.isharec.framework.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * 静态文件输出.
+ *
+ * 只有容器的sendfile(Tomcat NIO/APR)不经过堆内存复制; Servlet的输出流不是Channel, 其他情况按缓冲区复制写出.
+ */
+class FileTransfer {
+	static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+	static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+	static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+	static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+	// 与Tomcat DefaultServlet的sendfileSize一致, 小文件走sendfile反而更慢
+	private static final long SENDFILE_THRESHOLD = 48 * 1024;
+	private static final int BUFFER_SIZE = 8192;
+
+	private FileTransfer() {
+	}
+
+	/**
+	 * 容器支持sendfile时, 设置请求属性由容器在响应提交后直接从文件写入socket.
+	 *
+	 * @return 是否已交给容器处理, 返回true时不能再写响应体
+	 */
+	static boolean sendfile(HttpServletRequest req, File file, long start,
+			long end) throws IOException {
+		if (end - start < SENDFILE_THRESHOLD
+				|| !Boolean.TRUE.equals(req
+						.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+			return false;
+		}
+		req.setAttribute(SENDFILE_FILENAME_ATTR, file.getCanonicalPath());
+		req.setAttribute(SENDFILE_START_ATTR, Long.valueOf(start));
+		req.setAttribute(SENDFILE_END_ATTR, Long.valueOf(end));
+		return true;
+	}
+
+	/**
+	 * 将文件从position开始的count个字节写入输出流.
+	 */
+	static void transfer(File file, long position, long count,
+			OutputStream out) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			raf.seek(position);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long remaining = count;
+			while (remaining > 0) {
+				int n = raf.read(buffer, 0,
+						(int) Math.min(buffer.length, remaining));
+				if (n < 0) {
+					// 文件被截断
+					throw new IOException("unexpected end of file at "
+							+ (position + count - remaining));
+				}
+				out.write(buffer, 0, n);
+				remaining -= n;
+			}
+		} finally {
+			raf.close();
+		}
+	}
+}
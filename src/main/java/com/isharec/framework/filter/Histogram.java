@@ -0,0 +1,110 @@
+package com.isharec.framework.filter;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按固定区间计数的直方图, 线程安全, 记录时没有锁和分配.
+ */
+class Histogram {
+	// 各区间的上限(包含), 最后还有一个超出所有上限的区间
+	private final long[] bounds;
+	private final AtomicLongArray counts;
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	Histogram(long... bounds) {
+		this.bounds = bounds;
+		this.counts = new AtomicLongArray(bounds.length + 1);
+	}
+
+	void record(long value) {
+		int i = 0;
+		while (i < bounds.length && value > bounds[i]) {
+			i++;
+		}
+		counts.incrementAndGet(i);
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while (value > (current = max.get())) {
+			if (max.compareAndSet(current, value)) {
+				break;
+			}
+		}
+	}
+
+	long getCount() {
+		return count.get();
+	}
+
+	long getMax() {
+		return max.get();
+	}
+
+	double getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * 百分位数的估计值, 为所在区间的上限; 落在最后一个区间时返回最大值.
+	 *
+	 * @param percent
+	 *            如 99
+	 */
+	long getPercentile(double percent) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(n * percent / 100);
+		long seen = 0;
+		for (int i = 0; i < bounds.length; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return bounds[i];
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * 超过limit的记录数, limit应当是某个区间的上限.
+	 */
+	long getCountAbove(long limit) {
+		long result = 0;
+		for (int i = 0; i <= bounds.length; i++) {
+			if (i == bounds.length || bounds[i] > limit) {
+				result += counts.get(i);
+			}
+		}
+		return result;
+	}
+
+	void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * 输出各区间的计数, 每行一个区间, 如 "decode_us{le=\"100\"} 12".
+	 */
+	void appendTo(StringBuilder sb, String name) {
+		long cumulative = 0;
+		for (int i = 0; i <= bounds.length; i++) {
+			cumulative += counts.get(i);
+			sb.append(name).append("{le=\"")
+					.append(i < bounds.length ? String.valueOf(bounds[i]) : "+Inf")
+					.append("\"} ").append(cumulative).append('\n');
+		}
+		sb.append(name).append("_count ").append(count.get()).append('\n');
+		sb.append(name).append("_sum ").append(sum.get()).append('\n');
+		sb.append(name).append("_max ").append(max.get()).append('\n');
+	}
+}
@@ -0,0 +1,91 @@
+package com.isharec.framework.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HTTP Range请求中的一个字节范围, start和end都包含在内.
+ */
+class HttpRange {
+	// 超过这个数量的范围按整个文件返回, 避免被用来放大请求
+	private static final int MAX_RANGES = 16;
+
+	private final long start;
+	private final long end;
+
+	HttpRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	long getStart() {
+		return start;
+	}
+
+	long getEnd() {
+		return end;
+	}
+
+	long getLength() {
+		return end - start + 1;
+	}
+
+	String toContentRange(long total) {
+		return "bytes " + start + "-" + end + "/" + total;
+	}
+
+	/**
+	 * 解析Range头, 如 bytes=0-99,200-,-500.
+	 *
+	 * @param header
+	 *            Range头
+	 * @param length
+	 *            内容长度
+	 * @return 格式错误或范围过多时返回null, 应忽略Range返回整个内容; 没有可满足的范围时返回空列表
+	 */
+	static List<HttpRange> parse(String header, long length) {
+		if (!header.startsWith("bytes=")) {
+			return null;
+		}
+		String[] specs = header.substring("bytes=".length()).split(",");
+		if (specs.length > MAX_RANGES) {
+			return null;
+		}
+
+		List<HttpRange> ranges = new ArrayList<HttpRange>(specs.length);
+		for (String spec : specs) {
+			spec = spec.trim();
+			int idx = spec.indexOf('-');
+			if (idx == -1) {
+				return null;
+			}
+			long start;
+			long end;
+			try {
+				if (idx == 0) {
+					// 最后N个字节
+					long suffix = Long.parseLong(spec.substring(1));
+					if (suffix <= 0) {
+						continue;
+					}
+					start = Math.max(0, length - suffix);
+					end = length - 1;
+				} else {
+					start = Long.parseLong(spec.substring(0, idx));
+					end = idx == spec.length() - 1 ? length - 1 : Long
+							.parseLong(spec.substring(idx + 1));
+					if (end < start) {
+						return null;
+					}
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (start >= length) {
+				continue;
+			}
+			ranges.add(new HttpRange(start, Math.min(end, length - 1)));
+		}
+		return ranges;
+	}
+}
@@ -0,0 +1,39 @@
+package com.isharec.framework.filter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.isharec.framework.filter.CookieBasedSessionStore.CodecException;
+
+/**
+ * JSON格式, 与旧版cookie的内容相同.
+ */
+public class JsonSessionSerializer implements SessionSerializer {
+	public static final byte ID = 2;
+
+	// 配置完成后的ObjectMapper是线程安全的
+	static final ObjectMapper mapper = new ObjectMapper();
+
+	public byte getId() {
+		return ID;
+	}
+
+	public byte[] serialize(Map<String, Object> data) {
+		try {
+			return mapper.writeValueAsBytes(data);
+		} catch (Exception e) {
+			throw new CodecException(e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public Map<String, Object> deserialize(byte[] data, int offset, int length) {
+		try {
+			return mapper.readValue(data, offset, length, HashMap.class);
+		} catch (Exception e) {
+			throw new CodecException(e);
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package com.isharec.framework.filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * 一组Ant风格的路径模式, 初始化时按路径段编译成前缀树, 匹配时一次遍历得到第一个匹配的模式.
+ *
+ * 支持 ?, * (段内), ** (任意层目录); 以/结尾的模式为前缀, 如 /assets/ 等同于 /assets/**.
+ * 匹配结果按路径缓存, 缓存数量有上限, 路径中带id等变化部分时不会无限增长.
+ */
+public class PathPatterns {
+	private static final int NO_MATCH = Integer.MAX_VALUE;
+	private static final int CACHE_SIZE = 10000;
+
+	private static class Node {
+		// 在这里结束的模式中最小的序号
+		int terminal = NO_MATCH;
+		// 这个节点及其子节点上最小的序号, 用于剪枝
+		int min = NO_MATCH;
+		Map<String, Node> literals;
+		List<String> globs;
+		List<Node> globNodes;
+		Node doubleStar;
+	}
+
+	private final List<String> patterns;
+	private final Node root = new Node();
+	private final Cache<String, Integer> decisions = CacheBuilder.newBuilder()
+			.maximumSize(CACHE_SIZE).build();
+
+	public PathPatterns(List<String> patterns) {
+		this.patterns = Collections.unmodifiableList(new ArrayList<String>(
+				patterns));
+		for (int i = 0; i < patterns.size(); i++) {
+			add(patterns.get(i), i);
+		}
+	}
+
+	/**
+	 * 解析以逗号或换行分隔的模式, 参数为空时返回null.
+	 */
+	public static PathPatterns compile(String config) {
+		if (config == null) {
+			return null;
+		}
+		List<String> patterns = new ArrayList<String>();
+		for (String pattern : Splitter.onPattern("[,\\n]").trimResults()
+				.omitEmptyStrings().split(config)) {
+			patterns.add(pattern);
+		}
+		return patterns.isEmpty() ? null : new PathPatterns(patterns);
+	}
+
+	public List<String> getPatterns() {
+		return patterns;
+	}
+
+	public boolean matches(String path) {
+		return indexOf(path) != -1;
+	}
+
+	/**
+	 * @return 第一个匹配的模式的序号, 没有匹配时返回-1
+	 */
+	public int indexOf(final String path) {
+		try {
+			return decisions.get(path, new Callable<Integer>() {
+				public Integer call() {
+					int index = match(root, split(path), 0, NO_MATCH);
+					return index == NO_MATCH ? -1 : index;
+				}
+			});
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} catch (UncheckedExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * 不使用缓存, 适合只匹配一次的路径.
+	 */
+	public int indexOfUncached(String path) {
+		int index = match(root, split(path), 0, NO_MATCH);
+		return index == NO_MATCH ? -1 : index;
+	}
+
+	private void add(String pattern, int index) {
+		if (pattern.endsWith("/")) {
+			pattern = pattern + "**";
+		}
+		Node node = root;
+		node.min = Math.min(node.min, index);
+		for (String segment : split(pattern)) {
+			Node next;
+			if ("**".equals(segment)) {
+				if (node.doubleStar == null) {
+					node.doubleStar = new Node();
+				}
+				next = node.doubleStar;
+			} else if (segment.indexOf('*') != -1
+					|| segment.indexOf('?') != -1) {
+				if (node.globs == null) {
+					node.globs = new ArrayList<String>();
+					node.globNodes = new ArrayList<Node>();
+				}
+				int i = node.globs.indexOf(segment);
+				if (i == -1) {
+					node.globs.add(segment);
+					node.globNodes.add(new Node());
+					i = node.globs.size() - 1;
+				}
+				next = node.globNodes.get(i);
+			} else {
+				if (node.literals == null) {
+					node.literals = new HashMap<String, Node>();
+				}
+				next = node.literals.get(segment);
+				if (next == null) {
+					next = new Node();
+					node.literals.put(segment, next);
+				}
+			}
+			node = next;
+			node.min = Math.min(node.min, index);
+		}
+		node.terminal = Math.min(node.terminal, index);
+	}
+
+	private int match(Node node, String[] segments, int i, int best) {
+		if (node.min >= best) {
+			return best;
+		}
+		if (i == segments.length) {
+			best = Math.min(best, node.terminal);
+			if (node.doubleStar != null) {
+				best = match(node.doubleStar, segments, i, best);
+			}
+			return best;
+		}
+
+		String segment = segments[i];
+		if (node.literals != null) {
+			Node next = node.literals.get(segment);
+			if (next != null) {
+				best = match(next, segments, i + 1, best);
+			}
+		}
+		if (node.globs != null) {
+			for (int k = 0; k < node.globs.size(); k++) {
+				if (matchGlob(node.globs.get(k), segment)) {
+					best = match(node.globNodes.get(k), segments, i + 1, best);
+				}
+			}
+		}
+		if (node.doubleStar != null) {
+			// **匹配从i开始的任意多个路径段
+			for (int j = i; j <= segments.length; j++) {
+				best = match(node.doubleStar, segments, j, best);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * 段内的通配符匹配, *匹配任意多个字符, ?匹配一个字符.
+	 */
+	static boolean matchGlob(String glob, String s) {
+		int g = 0;
+		int i = 0;
+		int star = -1;
+		int mark = 0;
+		while (i < s.length()) {
+			if (g < glob.length()
+					&& (glob.charAt(g) == '?' || glob.charAt(g) == s.charAt(i))) {
+				g++;
+				i++;
+			} else if (g < glob.length() && glob.charAt(g) == '*') {
+				star = g++;
+				mark = i;
+			} else if (star != -1) {
+				g = star + 1;
+				i = ++mark;
+			} else {
+				return false;
+			}
+		}
+		while (g < glob.length() && glob.charAt(g) == '*') {
+			g++;
+		}
+		return g == glob.length();
+	}
+
+	/**
+	 * 按/分隔, 忽略空的路径段.
+	 */
+	private static String[] split(String path) {
+		List<String> segments = new ArrayList<String>();
+		int start = 0;
+		for (int i = 0; i <= path.length(); i++) {
+			if (i == path.length() || path.charAt(i) == '/') {
+				if (i > start) {
+					segments.add(path.substring(start, i));
+				}
+				start = i + 1;
+			}
+		}
+		return segments.toArray(new String[segments.size()]);
+	}
+}
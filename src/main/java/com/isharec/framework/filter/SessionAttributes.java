@@ -0,0 +1,143 @@
+package com.isharec.framework.filter;
+
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.NoSuchElementException;
+
+/**
+ * 会话属性, 用数组保存, 按名称顺序查找. 会话中通常只有几个属性, 比HashMap占用更少, 也不需要为每个条目分配对象.
+ *
+ * getAttributeNames返回的枚举直接读取名称数组, 不复制; 枚举过程中删除属性时先复制数组, 已返回的枚举不受影响.
+ */
+class SessionAttributes {
+	private static final String[] EMPTY_NAMES = new String[0];
+	private static final Object[] EMPTY_VALUES = new Object[0];
+	private static final int INITIAL_CAPACITY = 8;
+
+	private String[] names = EMPTY_NAMES;
+	private Object[] values = EMPTY_VALUES;
+	private int size;
+	// 名称数组被枚举引用, 删除前需要复制
+	private boolean shared;
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	private int indexOf(String name) {
+		for (int i = 0; i < size; i++) {
+			if (names[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	boolean containsKey(String name) {
+		return indexOf(name) != -1;
+	}
+
+	Object get(String name) {
+		int i = indexOf(name);
+		return i == -1 ? null : values[i];
+	}
+
+	/**
+	 * @return 原来的值
+	 */
+	Object put(String name, Object value) {
+		int i = indexOf(name);
+		if (i != -1) {
+			Object old = values[i];
+			values[i] = value;
+			return old;
+		}
+		if (size == names.length) {
+			// 新数组, 已返回的枚举仍引用旧数组
+			int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+			names = Arrays.copyOf(names, capacity);
+			values = Arrays.copyOf(values, capacity);
+			shared = false;
+		}
+		// 追加在已有名称之后, 不影响已返回的枚举
+		names[size] = name;
+		values[size] = value;
+		size++;
+		return null;
+	}
+
+	/**
+	 * @return 原来的值
+	 */
+	Object remove(String name) {
+		int i = indexOf(name);
+		if (i == -1) {
+			return null;
+		}
+		if (shared) {
+			names = names.clone();
+			shared = false;
+		}
+		Object old = values[i];
+		int last = size - 1;
+		names[i] = names[last];
+		values[i] = values[last];
+		names[last] = null;
+		values[last] = null;
+		size = last;
+		return old;
+	}
+
+	void clear() {
+		if (shared) {
+			names = EMPTY_NAMES;
+			values = EMPTY_VALUES;
+			shared = false;
+		} else {
+			Arrays.fill(names, 0, size, null);
+			Arrays.fill(values, 0, size, null);
+		}
+		size = 0;
+	}
+
+	String[] getNames() {
+		return Arrays.copyOf(names, size);
+	}
+
+	Enumeration<String> getNameEnumeration() {
+		if (size == 0) {
+			return NameEnumeration.EMPTY;
+		}
+		shared = true;
+		return new NameEnumeration(names, size);
+	}
+
+	private static class NameEnumeration implements Enumeration<String> {
+		static final NameEnumeration EMPTY = new NameEnumeration(EMPTY_NAMES,
+				0);
+
+		private final String[] names;
+		private final int size;
+		private int next;
+
+		NameEnumeration(String[] names, int size) {
+			this.names = names;
+			this.size = size;
+		}
+
+		public boolean hasMoreElements() {
+			return next < size;
+		}
+
+		public String nextElement() {
+			if (next >= size) {
+				throw new NoSuchElementException();
+			}
+			return names[next++];
+		}
+	}
+}
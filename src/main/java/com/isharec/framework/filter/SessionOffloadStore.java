@@ -0,0 +1,90 @@
+package com.isharec.framework.filter;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.isharec.framework.utils.Encodes;
+
+/**
+ * 保存不适合放在cookie中的会话内容, cookie中只保存引用id.
+ *
+ * 内容按Java序列化后的字节保存在ehcache中, 每次读取都得到新的副本: 同一用户的并发请求不会共享可变对象,
+ * 失败的请求对会话的修改也不会影响已保存的内容. 值需要实现Serializable.
+ * 引用id为随机值, 并且和cookie中的其它内容一起签名, 不能被猜测或伪造.
+ */
+public class SessionOffloadStore {
+	private static Logger logger = LoggerFactory
+			.getLogger(SessionOffloadStore.class);
+
+	private static final int REF_LENGTH = 16;
+
+	private final Ehcache cache;
+	private final SecureRandom random = new SecureRandom();
+
+	public SessionOffloadStore(Ehcache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * 保存会话内容. ref对应的内容相同时沿用ref, 否则生成新的引用id; 已保存的内容不会被修改,
+	 * 仍使用旧cookie的并发请求读到的是旧内容.
+	 *
+	 * @param ref
+	 *            已有的引用id, 可以为null
+	 * @param ttl
+	 *            过期时间(秒), 0表示使用缓存的配置
+	 * @return 引用id
+	 * @throws SerializationException
+	 *             值不能序列化时
+	 */
+	public String put(String ref, Map<String, Object> values, int ttl) {
+		byte[] bytes = SerializationUtils
+				.serialize(new HashMap<String, Object>(values));
+		Element element = ref == null ? null : cache.get(ref);
+		if (element == null
+				|| !Arrays.equals(bytes, (byte[]) element.getObjectValue())) {
+			byte[] id = new byte[REF_LENGTH];
+			random.nextBytes(id);
+			ref = Encodes.encodeHex(id);
+		}
+		element = new Element(ref, bytes);
+		if (ttl > 0) {
+			element.setTimeToLive(ttl);
+		}
+		cache.put(element);
+		return ref;
+	}
+
+	/**
+	 * @return 内容的副本, 已过期, 被回收或不能反序列化时返回null
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Object> get(String ref) {
+		Element element = cache.get(ref);
+		if (element == null) {
+			return null;
+		}
+		try {
+			return (Map<String, Object>) SerializationUtils
+					.deserialize((byte[]) element.getObjectValue());
+		} catch (SerializationException e) {
+			// 如重新部署后类有变化
+			logger.warn("failed to deserialize offloaded session " + ref, e);
+			return null;
+		}
+	}
+
+	public void remove(String ref) {
+		cache.remove(ref);
+	}
+}
@@ -0,0 +1,20 @@
+package com.isharec.framework.filter;
+
+import java.util.Map;
+
+/**
+ * Cookie会话内容的序列化方式.
+ *
+ * id写在cookie头部, 解码时据此选择序列化方式, 已发出的cookie依赖它, 不能修改. 内置的为1(二进制)和2(JSON).
+ */
+public interface SessionSerializer {
+
+	/**
+	 * 序列化方式的标识, 1-31.
+	 */
+	byte getId();
+
+	byte[] serialize(Map<String, Object> data);
+
+	Map<String, Object> deserialize(byte[] data, int offset, int length);
+}
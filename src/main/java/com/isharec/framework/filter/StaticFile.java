@@ -0,0 +1,176 @@
+package com.isharec.framework.filter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import org.apache.commons.lang3.time.FastDateFormat;
+
+import com.isharec.framework.utils.Digests;
+import com.isharec.framework.utils.Encodes;
+
+/**
+ * 请求路径解析后的静态文件信息.
+ */
+class StaticFile {
+	private static final FastDateFormat HTTP_DATE_FORMAT = FastDateFormat
+			.getInstance("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+					TimeZone.getTimeZone("GMT"), Locale.US);
+
+	private final File file;
+	private final long length;
+	private final long lastModified;
+	private final String contentType;
+	private final String versionKey;
+	private final String lastModifiedHeader;
+	private final String encoding;
+	private final String weakETag;
+	private volatile String etag;
+	// 上次确认文件未修改的时间
+	private volatile long checkedAt;
+
+	// 预压缩的兄弟文件(name.js.br, name.js.gz)
+	private boolean compressible;
+	private StaticFile brotli;
+	private StaticFile gzip;
+
+	StaticFile(File file, String contentType) {
+		this(file, contentType, null);
+	}
+
+	private StaticFile(File file, String contentType, String encoding) {
+		this.file = file;
+		this.encoding = encoding;
+		this.length = file.length();
+		this.lastModified = file.lastModified();
+		this.contentType = contentType;
+		this.versionKey = file.getPath() + ":" + lastModified + ":" + length;
+		this.lastModifiedHeader = HTTP_DATE_FORMAT.format(lastModified);
+		this.weakETag = "W/\"" + length + "-" + lastModified + "\"";
+		this.checkedAt = System.currentTimeMillis();
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	long getLength() {
+		return length;
+	}
+
+	long getLastModified() {
+		return lastModified;
+	}
+
+	String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * 内容编码, 原文件为null.
+	 */
+	String getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * 标记为可压缩的文件, 并查找预压缩的.br/.gz文件, 比原文件旧的忽略. 需在放入缓存前调用.
+	 */
+	void findPrecompressed() {
+		compressible = true;
+		brotli = findSibling(".br", "br");
+		gzip = findSibling(".gz", "gzip");
+	}
+
+	private StaticFile findSibling(String suffix, String encoding) {
+		File sibling = new File(file.getPath() + suffix);
+		if (sibling.isFile() && sibling.lastModified() >= lastModified) {
+			return new StaticFile(sibling, contentType, encoding);
+		}
+		return null;
+	}
+
+	boolean isCompressible() {
+		return compressible;
+	}
+
+	StaticFile getBrotli() {
+		return brotli;
+	}
+
+	StaticFile getGzip() {
+		return gzip;
+	}
+
+	/**
+	 * 格式化好的Last-Modified响应头.
+	 */
+	String getLastModifiedHeader() {
+		return lastModifiedHeader;
+	}
+
+	/**
+	 * 计算过内容摘要时为强ETag(内容的MD5), 否则为长度和修改时间组成的弱ETag, 请求时不读取文件内容.
+	 */
+	String getETag() {
+		String result = etag;
+		return result != null ? result : weakETag;
+	}
+
+	/**
+	 * 计算文件及预压缩文件内容的MD5作为强ETag, 在建立清单时对小文件调用.
+	 */
+	void computeETag() throws IOException {
+		InputStream input = new FileInputStream(file);
+		try {
+			etag = "\"" + Encodes.encodeHex(Digests.md5(input)) + "\"";
+		} finally {
+			input.close();
+		}
+		if (brotli != null) {
+			brotli.computeETag();
+		}
+		if (gzip != null) {
+			gzip.computeETag();
+		}
+	}
+
+	/**
+	 * 是否为弱ETag, 弱ETag不能用于If-Range.
+	 */
+	boolean isWeakETag() {
+		return etag == null;
+	}
+
+	/**
+	 * 距上次检查超过interval毫秒时, 检查文件及预压缩文件的长度和修改时间是否与记录一致.
+	 *
+	 * @return 文件已修改或删除时返回true
+	 */
+	boolean isModified(long interval) {
+		long now = System.currentTimeMillis();
+		if (now - checkedAt < interval) {
+			return false;
+		}
+		if (isChanged() || brotli != null && brotli.isChanged() || gzip != null
+				&& gzip.isChanged()) {
+			return true;
+		}
+		checkedAt = now;
+		return false;
+	}
+
+	private boolean isChanged() {
+		return file.length() != length || file.lastModified() != lastModified;
+	}
+
+	/**
+	 * 文件内容的缓存键, 文件路径+修改时间, 文件修改后旧内容自然失效.
+	 */
+	String getVersionKey() {
+		return versionKey;
+	}
+}
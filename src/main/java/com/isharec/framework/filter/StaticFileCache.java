@@ -0,0 +1,100 @@
+package com.isharec.framework.filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.io.Files;
+
+/**
+ * 静态文件内容缓存.
+ *
+ * 小文件内容按文件版本(路径+修改时间)缓存在内存中, 总字节数超出限制时按LRU淘汰.
+ */
+public class StaticFileCache {
+	private final Cache<String, byte[]> contents;
+	private final long maxFileSize;
+
+	StaticFileCache(long maxSize, long maxFileSize) {
+		this.maxFileSize = maxFileSize;
+		this.contents = CacheBuilder.newBuilder().maximumWeight(maxSize)
+				.weigher(new Weigher<String, byte[]>() {
+					public int weigh(String key, byte[] value) {
+						return value.length;
+					}
+				}).recordStats().build();
+	}
+
+	/**
+	 * 获取文件内容, 文件超过maxFileSize时返回null.
+	 */
+	byte[] getContent(final StaticFile file) throws IOException {
+		if (file.getLength() > maxFileSize) {
+			return null;
+		}
+		try {
+			return contents.get(file.getVersionKey(), new Callable<byte[]>() {
+				public byte[] call() throws IOException {
+					return Files.toByteArray(file.getFile());
+				}
+			});
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * 获取gzip压缩后的文件内容, 与原内容共用缓存空间, 文件超过maxFileSize时返回null.
+	 */
+	byte[] getGzipContent(final StaticFile file) throws IOException {
+		if (file.getLength() > maxFileSize) {
+			return null;
+		}
+		try {
+			return contents.get(file.getVersionKey() + ":gzip",
+					new Callable<byte[]>() {
+						public byte[] call() throws IOException {
+							return gzip(getContent(file));
+						}
+					});
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static byte[] gzip(byte[] content) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+				content.length / 4 + 64);
+		GZIPOutputStream output = new GZIPOutputStream(bytes);
+		output.write(content);
+		output.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * 内容缓存的命中/未命中/淘汰次数.
+	 */
+	public CacheStats stats() {
+		return contents.stats();
+	}
+
+	public long size() {
+		return contents.size();
+	}
+
+	void clear() {
+		contents.invalidateAll();
+	}
+}
@@ -2,28 +2,39 @@ package com.isharec.framework.filter;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
 import com.google.common.base.Strings;
-import com.google.common.io.Files;
 
 public class StaticFileFilter implements Filter {
+	private static Logger logger = LoggerFactory
+			.getLogger(StaticFileFilter.class);
+
 	private final static String DEFAULT_CONTENT_TYPE = "text/plain";
 	private final static Map<String, String> mimeTypes = new HashMap<String, String>();
-	private final static Pattern VERSIONABLE_FILE_PATTERN = Pattern
-			.compile("^(.*)-(\\d+)\\.(\\w+)$");
+	private final static String MIME_BOUNDARY = "STATIC_FILE_MIME_BOUNDARY";
 
 	static {
 		mimeTypes.put("txt", "text/plain");
@@ -40,39 +51,421 @@ public class StaticFileFilter implements Filter {
 		mimeTypes.put("svg", "image/svg+xml");
 	}
 
+	public static final String CACHE_ATTRIBUTE = StaticFileFilter.class
+			.getName() + ".CACHE";
+	private static final long DEFAULT_ASYNC_TIMEOUT = 60000;
+
 	private Pattern excludePattern = Pattern.compile("\\.jsp$");
+	private PathPatterns excludePaths;
+	private String rootPath;
+	private StaticFileCache cache;
+	private StaticFileManifest manifest;
+	private long cacheMaxFileSize;
+	private String versionedCacheControl;
+	private Pattern asyncPattern;
+	private PathPatterns asyncPaths;
+	private boolean asyncAvailable;
+	private long asyncMinSize;
+	private long asyncTimeout;
+	private ServletContext servletContext;
 
 	public void init(FilterConfig filterConfig) throws ServletException {
 		String exclude = filterConfig.getInitParameter("exclude");
 		if (!Strings.isNullOrEmpty(exclude)) {
 			excludePattern = Pattern.compile(exclude);
 		}
+		// Ant风格的路径, 多个用逗号分隔, 如: /WEB-INF/**,/**/*.jsp
+		excludePaths = PathPatterns.compile(filterConfig
+				.getInitParameter("excludePaths"));
+		// 内存缓存的总字节数, 单个文件大小上限
+		long cacheSize = getLongParameter(filterConfig, "cacheSize",
+				32 * 1024 * 1024);
+		cacheMaxFileSize = getLongParameter(filterConfig, "cacheMaxFileSize",
+				256 * 1024);
+		// 检查文件长度和修改时间的间隔(毫秒), -1表示不检查
+		long cacheCheckInterval = getLongParameter(filterConfig,
+				"cacheCheckInterval", 2000);
+		// 带版本号的URL的缓存时间(秒), 默认一年
+		long versionedMaxAge = getLongParameter(filterConfig,
+				"versionedMaxAge", 365 * 24 * 3600);
+		versionedCacheControl = "public, max-age=" + versionedMaxAge
+				+ ", immutable";
+		cache = new StaticFileCache(cacheSize, cacheMaxFileSize);
+		servletContext = filterConfig.getServletContext();
+
+		// 异步输出的路径, 与exclude一样是正则, 如: ^/userfiles/
+		// 需要Servlet 3.1容器, 并且过滤器链上的filter都设置了async-supported
+		String async = filterConfig.getInitParameter("async");
+		if (!Strings.isNullOrEmpty(async)) {
+			asyncPattern = Pattern.compile(async);
+		}
+		asyncPaths = PathPatterns.compile(filterConfig
+				.getInitParameter("asyncPaths"));
+		asyncAvailable = servletContext.getMajorVersion() > 3
+				|| (servletContext.getMajorVersion() == 3 && servletContext
+						.getMinorVersion() >= 1);
+		asyncMinSize = getLongParameter(filterConfig, "asyncMinSize",
+				1024 * 1024);
+		// 异步输出的超时时间(毫秒), 不大于0时使用容器的默认值; 不能不超时, 否则停止读取的客户端会一直占用文件
+		asyncTimeout = getLongParameter(filterConfig, "asyncTimeout",
+				DEFAULT_ASYNC_TIMEOUT);
+		servletContext.setAttribute(CACHE_ATTRIBUTE, cache);
+
+		String root = servletContext.getRealPath("/");
+		if (root == null) {
+			logger.warn("web application is not expanded, static files are served by the container");
+			return;
+		}
+		rootPath = new File(root).getPath();
+		manifest = new StaticFileManifest(new File(root),
+				new StaticFileManifest.Factory() {
+					public StaticFile create(File file) {
+						return createStaticFile(file);
+					}
+				}, cacheCheckInterval);
+		manifest.build();
+		// 开发模式下监听文件变化
+		if (Boolean.valueOf(filterConfig.getInitParameter("watch"))) {
+			try {
+				manifest.startWatching();
+			} catch (IOException e) {
+				throw new ServletException(e);
+			}
+		}
+
+		// 启动时生成.gz文件的目录, 多个用逗号分隔, 如: /assets,/ace
+		String precompress = filterConfig.getInitParameter("precompress");
+		if (!Strings.isNullOrEmpty(precompress)) {
+			startPrecompress(precompress);
+		}
+	}
+
+	private StaticFile createStaticFile(File file) {
+		if (isExcluded(file)) {
+			return null;
+		}
+		String contentType = getContentType(file);
+		StaticFile staticFile = new StaticFile(file, contentType);
+		if (isCompressible(contentType)) {
+			staticFile.findPrecompressed();
+		}
+		// 小文件在建立清单时计算内容的MD5, 大文件使用长度和修改时间的弱ETag, 请求时不读取文件
+		if (staticFile.getLength() <= cacheMaxFileSize) {
+			try {
+				staticFile.computeETag();
+			} catch (IOException e) {
+				logger.warn("failed to read " + file, e);
+				return null;
+			}
+		}
+		return staticFile;
+	}
+
+	private void startPrecompress(String precompress) {
+		List<File> dirs = new ArrayList<File>();
+		for (String dir : precompress.split(",")) {
+			String realPath = servletContext.getRealPath(dir.trim());
+			if (realPath != null) {
+				dirs.add(new File(realPath));
+			}
+		}
+		Set<String> suffixes = new HashSet<String>();
+		for (Map.Entry<String, String> entry : mimeTypes.entrySet()) {
+			if (isCompressible(entry.getValue())) {
+				suffixes.add(entry.getKey());
+			}
+		}
+		// 完成后重建清单, 让已有的文件找到新生成的.gz文件
+		Thread thread = new Thread(new StaticFilePrecompressor(dirs,
+				suffixes, new Runnable() {
+					public void run() {
+						manifest.build();
+					}
+				}), "static-file-precompress");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private long getLongParameter(FilterConfig filterConfig,
+			String parameterName, long defaultValue) {
+		String value = filterConfig.getInitParameter(parameterName);
+		if (Strings.isNullOrEmpty(value)) {
+			return defaultValue;
+		}
+		return Long.parseLong(value.trim());
 	}
 
 	public void doFilter(ServletRequest request, ServletResponse response,
 			FilterChain chain) throws IOException, ServletException {
 		HttpServletRequest req = (HttpServletRequest) request;
-		String path = req.getRequestURI();
-		String realPath = req.getServletContext().getRealPath(path);
-		if (realPath == null) {
+		if (manifest == null) {
+			chain.doFilter(request, response);
+			return;
+		}
+		String path = req.getServletPath();
+		if (req.getPathInfo() != null) {
+			path += req.getPathInfo();
+		}
+		boolean versioned = false;
+		StaticFile staticFile = manifest.get(path);
+		if (staticFile == null) {
+			String unversioned = removeVersion(path);
+			if (unversioned != null) {
+				staticFile = manifest.get(unversioned);
+				versioned = true;
+			}
+		}
+		if (staticFile == null) {
 			chain.doFilter(request, response);
 			return;
 		}
 
-		File file = normalizeFile(new File(realPath));
-		if (file.isFile() && file.exists() && !isExcluded(file)) {
-			HttpServletResponse resp = (HttpServletResponse) response;
+		HttpServletResponse resp = (HttpServletResponse) response;
 
-			long length = file.length();
-			resp.setContentLength((int) length);
-			String contentType = getContentType(file);
-			resp.setContentType(contentType);
+		// 选择响应的内容编码: 预压缩的.br/.gz文件, 或缓存中gzip压缩后的内容
+		StaticFile selected = staticFile;
+		byte[] content = null;
+		String etag;
+		if (staticFile.isCompressible()) {
+			resp.addHeader("Vary", "Accept-Encoding");
+			String acceptEncoding = req.getHeader("Accept-Encoding");
+			if (staticFile.getBrotli() != null
+					&& isAccepted(acceptEncoding, "br")) {
+				selected = staticFile.getBrotli();
+			} else if (isAccepted(acceptEncoding, "gzip")) {
+				if (staticFile.getGzip() != null) {
+					selected = staticFile.getGzip();
+				} else {
+					content = cache.getGzipContent(staticFile);
+				}
+			}
+		}
+		if (content != null) {
+			etag = gzipETag(staticFile.getETag());
+			resp.setHeader("Content-Encoding", "gzip");
+		} else {
+			etag = selected.getETag();
+			if (selected.getEncoding() != null) {
+				resp.setHeader("Content-Encoding", selected.getEncoding());
+			}
+		}
 
-			Files.copy(file, response.getOutputStream());
-			response.getOutputStream().flush();
+		resp.setHeader("ETag", etag);
+		resp.setHeader("Last-Modified", staticFile.getLastModifiedHeader());
+		if (versioned) {
+			resp.setHeader("Cache-Control", versionedCacheControl);
+		}
+		if (isNotModified(req, staticFile, etag)) {
+			resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		resp.setContentType(staticFile.getContentType());
+		resp.setHeader("Accept-Ranges", "bytes");
+		if (content == null) {
+			content = cache.getContent(selected);
+		}
+		long length = content != null ? content.length : selected.getLength();
+
+		List<HttpRange> ranges = null;
+		String range = req.getHeader("Range");
+		if (range != null && isIfRangeMatched(req, staticFile, etag)) {
+			ranges = HttpRange.parse(range, length);
+			if (ranges != null && ranges.isEmpty()) {
+				resp.setHeader("Content-Range", "bytes */" + length);
+				resp.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+		}
+
+		if (ranges == null) {
+			setContentLength(resp, length);
+			send(req, resp, path, content, selected, 0, length);
+		} else if (ranges.size() == 1) {
+			HttpRange r = ranges.get(0);
+			resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			resp.setHeader("Content-Range", r.toContentRange(length));
+			setContentLength(resp, r.getLength());
+			send(req, resp, path, content, selected, r.getStart(),
+					r.getLength());
 		} else {
-			chain.doFilter(request, response);
+			writeMultipart(resp, content, selected, ranges, length);
+		}
+	}
+
+	/**
+	 * 输出内容: 有缓存内容时从内存写出; 否则依次尝试容器的sendfile, 异步输出, 最后在当前线程阻塞写出.
+	 */
+	private void send(HttpServletRequest req, HttpServletResponse resp,
+			String path, byte[] content, StaticFile file, long start,
+			long count) throws IOException {
+		if (content == null) {
+			if (FileTransfer.sendfile(req, file.getFile(), start, start
+					+ count)) {
+				return;
+			}
+			if (isAsync(req, path, count)) {
+				AsyncFileWriter.start(req, resp, file.getFile(), start, count,
+						asyncTimeout);
+				return;
+			}
+		}
+		writeBody(resp.getOutputStream(), content, file, start, count);
+	}
+
+	private boolean isAsync(HttpServletRequest req, String path, long count) {
+		return (asyncPattern != null || asyncPaths != null) && asyncAvailable
+				&& count >= asyncMinSize && req.isAsyncSupported()
+				&& (asyncPaths != null && asyncPaths.matches(path)
+						|| asyncPattern != null && asyncPattern.matcher(path).find());
+	}
+
+	/**
+	 * 写出内容的一部分, 有缓存内容时从内存写出, 否则从文件按位置读取.
+	 */
+	private void writeBody(ServletOutputStream output, byte[] content,
+			StaticFile file, long start, long count) throws IOException {
+		if (content != null) {
+			output.write(content, (int) start, (int) count);
+		} else {
+			FileTransfer.transfer(file.getFile(), start, count, output);
+		}
+		output.flush();
+	}
+
+	/**
+	 * 多个范围时返回multipart/byteranges.
+	 */
+	private void writeMultipart(HttpServletResponse resp, byte[] content,
+			StaticFile file, List<HttpRange> ranges, long length)
+			throws IOException {
+		String contentType = resp.getContentType();
+		List<byte[]> headers = new ArrayList<byte[]>(ranges.size());
+		long total = 0;
+		for (HttpRange r : ranges) {
+			byte[] header = ("\r\n--" + MIME_BOUNDARY + "\r\nContent-Type: "
+					+ contentType + "\r\nContent-Range: "
+					+ r.toContentRange(length) + "\r\n\r\n")
+					.getBytes(Charsets.ISO_8859_1);
+			headers.add(header);
+			total += header.length + r.getLength();
+		}
+		byte[] end = ("\r\n--" + MIME_BOUNDARY + "--\r\n")
+				.getBytes(Charsets.ISO_8859_1);
+		total += end.length;
+
+		resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		resp.setContentType("multipart/byteranges; boundary=" + MIME_BOUNDARY);
+		setContentLength(resp, total);
+
+		ServletOutputStream output = resp.getOutputStream();
+		for (int i = 0; i < ranges.size(); i++) {
+			HttpRange r = ranges.get(i);
+			output.write(headers.get(i));
+			writeBody(output, content, file, r.getStart(), r.getLength());
+		}
+		output.write(end);
+		output.flush();
+	}
+
+	/**
+	 * 超过int范围的长度不能用setContentLength设置.
+	 */
+	private void setContentLength(HttpServletResponse resp, long length) {
+		if (length <= Integer.MAX_VALUE) {
+			resp.setContentLength((int) length);
+		} else {
+			resp.setHeader("Content-Length", String.valueOf(length));
+		}
+	}
+
+	/**
+	 * 没有If-Range, 或If-Range中的ETag/日期与当前文件一致时才处理Range. ETag按强比较, 弱ETag不匹配.
+	 */
+	private boolean isIfRangeMatched(HttpServletRequest req,
+			StaticFile staticFile, String etag) {
+		String ifRange = req.getHeader("If-Range");
+		if (ifRange == null) {
+			return true;
+		}
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return !staticFile.isWeakETag() && etag.equals(ifRange);
+		}
+		try {
+			long date = req.getDateHeader("If-Range");
+			return date != -1
+					&& staticFile.getLastModified() / 1000 == date / 1000;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * 动态gzip压缩内容的ETag, 与原文件的ETag区分.
+	 */
+	private String gzipETag(String etag) {
+		return etag.substring(0, etag.length() - 1) + "-gzip\"";
+	}
+
+	/**
+	 * Accept-Encoding中是否接受指定的编码, q=0表示不接受.
+	 */
+	private boolean isAccepted(String acceptEncoding, String encoding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String item : acceptEncoding.split(",")) {
+			String[] parts = item.split(";");
+			String name = parts[0].trim();
+			if (!name.equalsIgnoreCase(encoding) && !"*".equals(name)) {
+				continue;
+			}
+			for (int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						return Double.parseDouble(param.substring(2)) > 0;
+					} catch (NumberFormatException e) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * 检查If-None-Match和If-Modified-Since, 有If-None-Match时忽略If-Modified-Since. ETag按弱比较.
+	 */
+	private boolean isNotModified(HttpServletRequest req,
+			StaticFile staticFile, String etag) {
+		String ifNoneMatch = req.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			String opaqueTag = removeWeak(etag);
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = removeWeak(tag.trim());
+				if ("*".equals(tag) || opaqueTag.equals(tag)) {
+					return true;
+				}
+			}
+			return false;
 		}
+
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = req.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		// HTTP日期只精确到秒
+		return ifModifiedSince != -1
+				&& staticFile.getLastModified() / 1000 <= ifModifiedSince / 1000;
+	}
+
+	private static String removeWeak(String etag) {
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
 	}
 
 	private boolean isExcluded(File file) {
@@ -81,6 +474,13 @@ public class StaticFileFilter implements Filter {
 		if (path.indexOf("/WEB-INF/") != -1) {
 			return true;
 		}
+		// 只在建立清单时调用, 不需要缓存
+		if (excludePaths != null
+				&& path.startsWith(rootPath)
+				&& excludePaths.indexOfUncached(path.substring(rootPath.length())
+						.replace(File.separatorChar, '/')) != -1) {
+			return true;
+		}
 		if (excludePattern != null) {
 			Matcher m = excludePattern.matcher(path);
 			if (m.find()) {
@@ -91,17 +491,32 @@ public class StaticFileFilter implements Filter {
 		return false;
 	}
 
-	private File normalizeFile(File file) {
-		if (file.isFile()) {
-			return file;
+	/**
+	 * 去掉文件名中的版本号, 如 /js/app-123.js 返回 /js/app.js, 不带版本号时返回null.
+	 */
+	private String removeVersion(String path) {
+		int dot = path.lastIndexOf('.');
+		int slash = path.lastIndexOf('/');
+		if (dot <= slash) {
+			return null;
 		}
-		String name = file.getName();
-		Matcher m = VERSIONABLE_FILE_PATTERN.matcher(name);
-		if (m.find()) {
-			name = m.group(1) + "." + m.group(3);
-			return new File(file.getParent(), name);
+		int dash = path.lastIndexOf('-', dot);
+		if (dash <= slash || dash == dot - 1) {
+			return null;
 		}
-		return file;
+		for (int i = dash + 1; i < dot; i++) {
+			char c = path.charAt(i);
+			if (c < '0' || c > '9') {
+				return null;
+			}
+		}
+		return path.substring(0, dash) + path.substring(dot);
+	}
+
+	private static boolean isCompressible(String contentType) {
+		return contentType.startsWith("text/")
+				|| contentType.contains("javascript")
+				|| contentType.contains("xml") || contentType.contains("json");
 	}
 
 	private String getContentType(File file) {
@@ -119,6 +534,14 @@ public class StaticFileFilter implements Filter {
 	}
 
 	public void destroy() {
+		if (manifest != null) {
+			manifest.close();
+		}
+		if (cache != null) {
+			logger.info("static file cache: {}", cache.stats());
+			cache.clear();
+			servletContext.removeAttribute(CACHE_ATTRIBUTE);
+		}
 	}
 
 }
@@ -0,0 +1,266 @@
+package com.isharec.framework.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * 静态文件清单.
+ *
+ * 启动时扫描目录, 建立逻辑路径(如 /assets/js/app.js)到文件信息的不可变映射, 请求时只需一次查找.
+ * 命中时按checkInterval检查文件长度和修改时间, 文件在原处修改或删除后更新记录; 未命中时检查文件系统,
+ * 运行时上传的文件(如 /userfiles/)不放入清单, 检查结果在有上限的缓存中保存checkInterval毫秒.
+ * 开发模式下监听目录变化, 按文件增量更新清单.
+ */
+class StaticFileManifest {
+	private static Logger logger = LoggerFactory
+			.getLogger(StaticFileManifest.class);
+
+	private static final int PROBE_CACHE_SIZE = 10000;
+
+	/**
+	 * 根据文件创建清单记录, 不应提供的文件返回null.
+	 */
+	interface Factory {
+		StaticFile create(File file);
+	}
+
+	private final File root;
+	private final String rootPath;
+	private final Factory factory;
+	private final long checkInterval;
+	// 清单外的路径的检查结果
+	private final Cache<String, Optional<StaticFile>> probes;
+
+	private volatile Map<String, StaticFile> files = ImmutableMap.of();
+
+	private WatchService watchService;
+	private final Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<WatchKey, Path>();
+
+	/**
+	 * @param checkInterval
+	 *            检查文件变化的间隔(毫秒), 小于0时不检查, 只使用启动时的清单
+	 */
+	StaticFileManifest(File root, Factory factory, long checkInterval) {
+		this.root = root;
+		this.rootPath = root.getPath();
+		this.factory = factory;
+		this.checkInterval = checkInterval;
+		this.probes = checkInterval >= 0 ? CacheBuilder.newBuilder()
+				.maximumSize(PROBE_CACHE_SIZE)
+				.expireAfterWrite(checkInterval, TimeUnit.MILLISECONDS)
+				.<String, Optional<StaticFile>> build() : null;
+	}
+
+	StaticFile get(String path) {
+		StaticFile staticFile = files.get(path);
+		if (checkInterval < 0) {
+			return staticFile;
+		}
+		if (staticFile != null) {
+			if (staticFile.isModified(checkInterval)) {
+				update(staticFile.getFile());
+				staticFile = files.get(path);
+			}
+			return staticFile;
+		}
+		return probe(path);
+	}
+
+	private StaticFile probe(String path) {
+		Optional<StaticFile> probe = probes.getIfPresent(path);
+		if (probe != null) {
+			StaticFile staticFile = probe.orNull();
+			if (staticFile == null || !staticFile.isModified(checkInterval)) {
+				return staticFile;
+			}
+		}
+		StaticFile staticFile = null;
+		if (path.startsWith("/") && path.indexOf("..") == -1) {
+			File file = new File(root, path);
+			if (file.isFile()) {
+				staticFile = factory.create(file);
+			}
+		}
+		probes.put(path, Optional.fromNullable(staticFile));
+		return staticFile;
+	}
+
+	int size() {
+		return files.size();
+	}
+
+	/**
+	 * 重新扫描整个目录.
+	 */
+	synchronized void build() {
+		Map<String, StaticFile> result = new HashMap<String, StaticFile>();
+		scan(root, result);
+		files = ImmutableMap.copyOf(result);
+		if (probes != null) {
+			probes.invalidateAll();
+		}
+		logger.info("static file manifest: {} files under {}", result.size(),
+				root);
+	}
+
+	private void scan(File dir, Map<String, StaticFile> result) {
+		File[] children = dir.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				scan(child, result);
+			} else {
+				StaticFile staticFile = factory.create(child);
+				if (staticFile != null) {
+					result.put(toPath(child), staticFile);
+				}
+			}
+		}
+	}
+
+	private String toPath(File file) {
+		String path = file.getPath().substring(rootPath.length());
+		if (File.separatorChar != '/') {
+			path = path.replace(File.separatorChar, '/');
+		}
+		return path;
+	}
+
+	/**
+	 * 文件新增, 修改或删除后更新对应的记录. 预压缩文件(.gz/.br)变化时更新原文件的记录.
+	 */
+	synchronized void update(File file) {
+		String name = file.getName();
+		if (name.endsWith(".gz") || name.endsWith(".br")) {
+			File original = new File(file.getParent(), name.substring(0,
+					name.length() - 3));
+			if (original.isFile()) {
+				file = original;
+			}
+		}
+
+		Map<String, StaticFile> result = new HashMap<String, StaticFile>(files);
+		String path = toPath(file);
+		if (file.isDirectory()) {
+			scan(file, result);
+		} else {
+			StaticFile staticFile = file.isFile() ? factory.create(file)
+					: null;
+			if (staticFile != null) {
+				result.put(path, staticFile);
+			} else {
+				// 删除的可能是目录
+				result.remove(path);
+				String prefix = path + "/";
+				Iterator<String> it = result.keySet().iterator();
+				while (it.hasNext()) {
+					if (it.next().startsWith(prefix)) {
+						it.remove();
+					}
+				}
+			}
+		}
+		files = ImmutableMap.copyOf(result);
+	}
+
+	/**
+	 * 启动后台线程监听目录变化, 用于开发模式.
+	 */
+	void startWatching() throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		register(root.toPath());
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				watch();
+			}
+		}, "static-file-watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void register(Path dir) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir,
+					BasicFileAttributes attrs) throws IOException {
+				WatchKey key = dir.register(watchService,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY,
+						StandardWatchEventKinds.ENTRY_DELETE);
+				watchKeys.put(key, dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				Path dir = watchKeys.get(key);
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						build();
+						continue;
+					}
+					if (dir == null) {
+						continue;
+					}
+					Path child = dir.resolve((Path) event.context());
+					if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+							&& Files.isDirectory(child)) {
+						try {
+							register(child);
+						} catch (IOException e) {
+							logger.warn("failed to watch " + child, e);
+						}
+					}
+					update(child.toFile());
+				}
+				if (!key.reset()) {
+					watchKeys.remove(key);
+				}
+			}
+		} catch (ClosedWatchServiceException e) {
+			// 已停止
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	void close() {
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				logger.warn("failed to close static file watcher", e);
+			}
+		}
+	}
+}
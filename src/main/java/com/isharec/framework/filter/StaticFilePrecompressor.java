@@ -0,0 +1,118 @@
+package com.isharec.framework.filter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.Files;
+
+/**
+ * 启动时为静态文件目录下的可压缩文件生成.gz文件, 已存在且不比原文件旧的跳过.
+ *
+ * 先写临时文件再改名, 避免请求读到写了一半的文件; 压缩后没有变小的文件不生成.
+ */
+class StaticFilePrecompressor implements Runnable {
+	private static Logger logger = LoggerFactory
+			.getLogger(StaticFilePrecompressor.class);
+
+	// 太小的文件压缩意义不大
+	private static final long MIN_SIZE = 1024;
+
+	private final List<File> dirs;
+	private final Set<String> suffixes;
+	private final Runnable callback;
+
+	/**
+	 * @param dirs
+	 *            要处理的目录
+	 * @param suffixes
+	 *            可压缩的文件后缀, 如 js, css
+	 * @param callback
+	 *            处理完成后执行, 可以为null
+	 */
+	StaticFilePrecompressor(List<File> dirs, Set<String> suffixes,
+			Runnable callback) {
+		this.dirs = dirs;
+		this.suffixes = suffixes;
+		this.callback = callback;
+	}
+
+	public void run() {
+		int count = 0;
+		for (File dir : dirs) {
+			count += compressDir(dir);
+		}
+		logger.info("precompressed {} static files", count);
+		if (callback != null) {
+			callback.run();
+		}
+	}
+
+	private int compressDir(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return 0;
+		}
+		int count = 0;
+		for (File file : files) {
+			if (file.isDirectory()) {
+				count += compressDir(file);
+			} else if (isCompressible(file)) {
+				try {
+					if (compress(file)) {
+						count++;
+					}
+				} catch (IOException e) {
+					logger.warn("failed to precompress " + file, e);
+				}
+			}
+		}
+		return count;
+	}
+
+	private boolean isCompressible(File file) {
+		if (file.length() < MIN_SIZE) {
+			return false;
+		}
+		String suffix = Files.getFileExtension(file.getName());
+		return suffixes.contains(suffix);
+	}
+
+	private boolean compress(File file) throws IOException {
+		File target = new File(file.getPath() + ".gz");
+		if (target.isFile() && target.lastModified() >= file.lastModified()) {
+			return false;
+		}
+
+		File temp = new File(file.getPath() + ".gz.tmp");
+		OutputStream output = new GZIPOutputStream(new FileOutputStream(temp)) {
+			{
+				def.setLevel(Deflater.BEST_COMPRESSION);
+			}
+		};
+		try {
+			Files.copy(file, output);
+		} finally {
+			output.close();
+		}
+
+		if (temp.length() >= file.length()) {
+			temp.delete();
+			return false;
+		}
+		target.delete();
+		if (!temp.renameTo(target)) {
+			temp.delete();
+			return false;
+		}
+		return true;
+	}
+}
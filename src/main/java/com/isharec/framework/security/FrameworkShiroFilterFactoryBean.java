@@ -0,0 +1,26 @@
+package com.isharec.framework.security;
+
+import org.apache.shiro.spring.web.ShiroFilterFactoryBean;
+import org.apache.shiro.web.filter.mgt.FilterChainResolver;
+import org.apache.shiro.web.filter.mgt.PathMatchingFilterChainResolver;
+import org.apache.shiro.web.servlet.AbstractShiroFilter;
+
+/**
+ * 使用TrieFilterChainResolver匹配filterChainDefinitions.
+ */
+public class FrameworkShiroFilterFactoryBean extends ShiroFilterFactoryBean {
+
+	@Override
+	protected AbstractShiroFilter createInstance() throws Exception {
+		AbstractShiroFilter filter = super.createInstance();
+		FilterChainResolver resolver = filter.getFilterChainResolver();
+		if (resolver instanceof PathMatchingFilterChainResolver) {
+			TrieFilterChainResolver trieResolver = new TrieFilterChainResolver();
+			trieResolver
+					.setFilterChainManager(((PathMatchingFilterChainResolver) resolver)
+							.getFilterChainManager());
+			filter.setFilterChainResolver(trieResolver);
+		}
+		return filter;
+	}
+}
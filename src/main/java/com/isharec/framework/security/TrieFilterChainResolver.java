@@ -0,0 +1,55 @@
+package com.isharec.framework.security;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.apache.shiro.web.filter.mgt.FilterChainManager;
+import org.apache.shiro.web.filter.mgt.PathMatchingFilterChainResolver;
+
+import com.isharec.framework.filter.PathPatterns;
+
+/**
+ * 把filterChainDefinitions中的路径一次编译成PathPatterns, 每个请求只遍历一次, 不再逐个模式调用AntPathMatcher.
+ * 与原实现一样返回第一个匹配的定义.
+ */
+public class TrieFilterChainResolver extends PathMatchingFilterChainResolver {
+
+	private volatile PathPatterns patterns;
+
+	@Override
+	public FilterChain getChain(ServletRequest request,
+			ServletResponse response, FilterChain originalChain) {
+		FilterChainManager filterChainManager = getFilterChainManager();
+		if (!filterChainManager.hasChains()) {
+			return null;
+		}
+
+		PathPatterns current = getPatterns(filterChainManager);
+		int index = current.indexOf(getPathWithinApplication(request));
+		if (index == -1) {
+			return null;
+		}
+		return filterChainManager.proxy(originalChain, current.getPatterns()
+				.get(index));
+	}
+
+	/**
+	 * 过滤器链通常只在启动时定义, 数量变化时重新编译.
+	 */
+	private PathPatterns getPatterns(FilterChainManager filterChainManager) {
+		PathPatterns current = patterns;
+		if (current == null
+				|| current.getPatterns().size() != filterChainManager
+						.getChainNames().size()) {
+			List<String> names = new ArrayList<String>(
+					filterChainManager.getChainNames());
+			current = new PathPatterns(names);
+			patterns = current;
+		}
+		return current;
+	}
+}
@@ -41,7 +41,7 @@ public class UserService extends BaseService {
 
 	public Page<User> findUser(Page<User> page, User user) {
 		DetachedCriteria dc = userDao.createDetachedCriteria();
-		page.setOrderBy("createAt desc");
+		page.setOrderBy("createAt desc, id desc");
 		return userDao.find(page, dc);
 	}
 
@@ -6,6 +6,8 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
@@ -13,6 +15,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * 反射工具类. 提供调用getter/setter方法, 访问私有变量, 调用私有方法, 获取泛型类型Class, 被AOP过的真实类等工具函数.
  */
@@ -28,6 +33,16 @@ public class ReflectionsUtils {
 	private static Logger logger = LoggerFactory
 			.getLogger(ReflectionsUtils.class);
 
+	private static final int CACHE_SIZE = 10000;
+
+	// 按被代理的类缓存找到的字段和方法, 没有找到的不缓存
+	private static final Cache<List<Object>, Field> fieldCache = CacheBuilder
+			.newBuilder().maximumSize(CACHE_SIZE).build();
+	private static final Cache<List<Object>, Method> methodCache = CacheBuilder
+			.newBuilder().maximumSize(CACHE_SIZE).build();
+	private static final Cache<List<Object>, Method> methodByNameCache = CacheBuilder
+			.newBuilder().maximumSize(CACHE_SIZE).build();
+
 	/**
 	 * 调用Getter方法. 支持多级，如：对象名.对象名.方法
 	 */
@@ -151,7 +166,20 @@ public class ReflectionsUtils {
 			final String fieldName) {
 		Validate.notNull(obj, "object can't be null");
 		Validate.notBlank(fieldName, "fieldName can't be blank");
-		for (Class<?> superClass = obj.getClass(); superClass != Object.class; superClass = superClass
+		Class<?> clazz = getUserClass(obj.getClass());
+		List<Object> key = Arrays.<Object> asList(clazz, fieldName);
+		Field field = fieldCache.getIfPresent(key);
+		if (field == null) {
+			field = findField(clazz, fieldName);
+			if (field != null) {
+				fieldCache.put(key, field);
+			}
+		}
+		return field;
+	}
+
+	private static Field findField(Class<?> clazz, String fieldName) {
+		for (Class<?> superClass = clazz; superClass != Object.class; superClass = superClass
 				.getSuperclass()) {
 			try {
 				Field field = superClass.getDeclaredField(fieldName);
@@ -176,8 +204,22 @@ public class ReflectionsUtils {
 			final String methodName, final Class<?>... parameterTypes) {
 		Validate.notNull(obj, "object can't be null");
 		Validate.notBlank(methodName, "methodName can't be blank");
+		Class<?> clazz = getUserClass(obj.getClass());
+		List<Object> key = Arrays.<Object> asList(clazz, methodName,
+				parameterTypes == null ? null : Arrays.asList(parameterTypes));
+		Method method = methodCache.getIfPresent(key);
+		if (method == null) {
+			method = findMethod(clazz, methodName, parameterTypes);
+			if (method != null) {
+				methodCache.put(key, method);
+			}
+		}
+		return method;
+	}
 
-		for (Class<?> searchType = obj.getClass(); searchType != Object.class; searchType = searchType
+	private static Method findMethod(Class<?> clazz, String methodName,
+			Class<?>[] parameterTypes) {
+		for (Class<?> searchType = clazz; searchType != Object.class; searchType = searchType
 				.getSuperclass()) {
 			try {
 				Method method = searchType.getDeclaredMethod(methodName,
@@ -202,8 +244,20 @@ public class ReflectionsUtils {
 			final String methodName) {
 		Validate.notNull(obj, "object can't be null");
 		Validate.notBlank(methodName, "methodName can't be blank");
+		Class<?> clazz = getUserClass(obj.getClass());
+		List<Object> key = Arrays.<Object> asList(clazz, methodName);
+		Method method = methodByNameCache.getIfPresent(key);
+		if (method == null) {
+			method = findMethodByName(clazz, methodName);
+			if (method != null) {
+				methodByNameCache.put(key, method);
+			}
+		}
+		return method;
+	}
 
-		for (Class<?> searchType = obj.getClass(); searchType != Object.class; searchType = searchType
+	private static Method findMethodByName(Class<?> clazz, String methodName) {
+		for (Class<?> searchType = clazz; searchType != Object.class; searchType = searchType
 				.getSuperclass()) {
 			Method[] methods = searchType.getDeclaredMethods();
 			for (Method method : methods) {
@@ -293,7 +347,13 @@ public class ReflectionsUtils {
 
 	public static Class<?> getUserClass(Object instance) {
 		Assert.notNull(instance, "Instance must not be null");
-		Class clazz = instance.getClass();
+		return getUserClass(instance.getClass());
+	}
+
+	/**
+	 * 代理类返回被代理的类.
+	 */
+	public static Class<?> getUserClass(Class<?> clazz) {
 		if (clazz != null && clazz.getName().contains(CGLIB_CLASS_SEPARATOR)) {
 			Class<?> superClass = clazz.getSuperclass();
 			if (superClass != null && !Object.class.equals(superClass)) {
@@ -301,7 +361,6 @@ public class ReflectionsUtils {
 			}
 		}
 		return clazz;
-
 	}
 
 	/**
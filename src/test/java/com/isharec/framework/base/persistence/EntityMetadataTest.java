@@ -0,0 +1,158 @@
+package com.isharec.framework.base.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javassist.util.proxy.MethodHandler;
+import javassist.util.proxy.ProxyFactory;
+import javassist.util.proxy.ProxyObject;
+
+import javax.persistence.Id;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Version;
+
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.MethodInterceptor;
+import net.sf.cglib.proxy.MethodProxy;
+
+import org.junit.Test;
+
+public class EntityMetadataTest {
+
+	@Test
+	public void testIdThroughGetter() {
+		Child child = new Child();
+		EntityMetadata metadata = EntityMetadata.forEntity(child);
+		assertTrue(metadata.isNew(child));
+
+		child.id = 5L;
+		child.calls.clear();
+		assertEquals(5L, metadata.getId(child));
+		// 注解在字段上, 通过getter读取
+		assertEquals(Arrays.asList("getId"), child.calls);
+		assertFalse(metadata.isNew(child));
+	}
+
+	@Test
+	public void testVersionField() {
+		Child child = new Child();
+		EntityMetadata metadata = EntityMetadata.forEntity(child);
+		assertTrue(metadata.hasVersion());
+		assertEquals(3, metadata.getVersion(child));
+		assertFalse(EntityMetadata.forClass(GrandParent.class).hasVersion());
+	}
+
+	@Test
+	public void testCallbackOrder() {
+		Child child = new Child();
+		EntityMetadata.forEntity(child).prePersist(child);
+		// 父类的先执行, 子类覆盖的方法只执行一次
+		assertEquals(Arrays.asList("grandParent", "child.overridden", "child"),
+				child.calls);
+
+		child.calls.clear();
+		EntityMetadata.forEntity(child).preUpdate(child);
+		// 私有方法不会被覆盖, 各自执行
+		assertEquals(Arrays.asList("parent.private", "child.private"),
+				child.calls);
+	}
+
+	@Test
+	public void testJavassistProxy() throws Exception {
+		ProxyFactory factory = new ProxyFactory();
+		factory.setSuperclass(Child.class);
+		Child proxy = (Child) factory.createClass().newInstance();
+		((ProxyObject) proxy).setHandler(new MethodHandler() {
+			public Object invoke(Object self, Method method, Method proceed,
+					Object[] args) throws Throwable {
+				// 与Hibernate代理一样, 字段没有初始化, 只有getter返回值
+				return "getId".equals(method.getName()) ? 7L : proceed.invoke(
+						self, args);
+			}
+		});
+		assertNotSame(Child.class, proxy.getClass());
+
+		EntityMetadata metadata = EntityMetadata.forEntity(proxy);
+		assertSame(EntityMetadata.forClass(Child.class), metadata);
+		assertSame(Child.class, metadata.getEntityClass());
+		assertEquals(7L, metadata.getId(proxy));
+	}
+
+	@Test
+	public void testCglibProxy() {
+		Enhancer enhancer = new Enhancer();
+		enhancer.setSuperclass(Child.class);
+		enhancer.setCallback(new MethodInterceptor() {
+			public Object intercept(Object obj, Method method, Object[] args,
+					MethodProxy proxy) throws Throwable {
+				return proxy.invokeSuper(obj, args);
+			}
+		});
+		Child proxy = (Child) enhancer.create();
+
+		EntityMetadata metadata = EntityMetadata.forEntity(proxy);
+		assertSame(EntityMetadata.forClass(Child.class), metadata);
+		metadata.prePersist(proxy);
+		assertEquals(Arrays.asList("grandParent", "child.overridden", "child"),
+				proxy.calls);
+	}
+
+	public static class GrandParent {
+		final List<String> calls = new ArrayList<String>();
+
+		@PrePersist
+		public void grandParentInsert() {
+			calls.add("grandParent");
+		}
+	}
+
+	public static class Parent extends GrandParent {
+		@PrePersist
+		public void overridden() {
+			calls.add("parent.overridden");
+		}
+
+		@PreUpdate
+		private void update() {
+			calls.add("parent.private");
+		}
+	}
+
+	public static class Child extends Parent {
+		@Id
+		Long id;
+
+		@Version
+		Integer version = 3;
+
+		public Long getId() {
+			calls.add("getId");
+			return id;
+		}
+
+		@Override
+		@PrePersist
+		public void overridden() {
+			calls.add("child.overridden");
+		}
+
+		@PrePersist
+		public void childInsert() {
+			calls.add("child");
+		}
+
+		@PreUpdate
+		private void update() {
+			calls.add("child.private");
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.isharec.framework.base.persistence;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class KeysetTest {
+
+	@Test
+	public void testToCondition() {
+		assertEquals("(id > :seek1)", Keyset.parse("id").toCondition());
+		assertEquals("(id < :seek1)", Keyset.parse("id DESC").toCondition());
+		// 不同字段的排序方向不同
+		assertEquals("(createAt < :seek1 or (createAt = :seek1 and id > :seek2))",
+				Keyset.parse("createAt desc, id asc").toCondition());
+		assertEquals("(a > :seek1 or (a = :seek1 and b < :seek2)"
+				+ " or (a = :seek1 and b = :seek2 and c > :seek3))", Keyset
+				.parse("a,b desc,c").toCondition());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseBlank() {
+		Keyset.parse(" ");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParseInvalid() {
+		Keyset.parse("createAt desc nulls, id");
+	}
+
+	@Test
+	public void testToParameter() {
+		Parameter parameter = new Parameter();
+		parameter.put("delFlag", "0");
+		Parameter result = Keyset.parse("createAt desc, id desc").toParameter(
+				parameter, new Object[] { new Date(0), 5L });
+		assertEquals("0", result.get("delFlag"));
+		assertEquals(new Date(0), result.get("seek1"));
+		assertEquals(5L, result.get("seek2"));
+		// 不修改原有参数
+		assertEquals(1, parameter.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testToParameterNullValue() {
+		Keyset.parse("createAt desc, id desc").toParameter(null,
+				new Object[] { null, 5L });
+	}
+
+	@Test
+	public void testGetValuesFromMap() {
+		Map<String, Object> first = new HashMap<String, Object>();
+		first.put("create_at", 1);
+		first.put("id", 1L);
+		Map<String, Object> last = new HashMap<String, Object>();
+		last.put("create_at", 2);
+		last.put("id", 9L);
+		// 带别名的字段在Map中按列名取值
+		assertArrayEquals(new Object[] { 2, 9L },
+				Keyset.parse("u.create_at desc, u.id desc").getValues(
+						Arrays.asList(first, last)));
+		assertNull(Keyset.parse("id").getValues(Collections.emptyList()));
+	}
+
+	@Test
+	public void testGetValuesFromEntity() {
+		Row row = new Row(new Date(1000), 7L);
+		assertArrayEquals(new Object[] { new Date(1000), 7L }, Keyset.parse(
+				"createAt desc, id desc").getValues(Arrays.asList(row)));
+		// 去掉别名, 下划线的列名转换为属性名
+		assertArrayEquals(new Object[] { new Date(1000), 7L }, Keyset.parse(
+				"u.create_at desc, u.id desc").getValues(Arrays.asList(row)));
+	}
+
+	public static class Row {
+		private final Date createAt;
+		private final Long id;
+
+		Row(Date createAt, Long id) {
+			this.createAt = createAt;
+			this.id = id;
+		}
+
+		public Date getCreateAt() {
+			return createAt;
+		}
+
+		public Long getId() {
+			return id;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package com.isharec.framework.base.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class PagedQueryTest {
+
+	@Test
+	public void testRemoveOrders() {
+		assertEquals("from User u ",
+				PagedQuery.removeOrders("from User u order by u.name"));
+		assertEquals("from User u ",
+				PagedQuery.removeOrders("from User u ORDER  BY u.name desc, u.id"));
+		assertEquals("from User u where u.name = :name",
+				PagedQuery.removeOrders("from User u where u.name = :name"));
+	}
+
+	@Test
+	public void testAddCondition() {
+		String condition = "(u.id > :seek1)";
+		assertEquals("from User u where (u.id > :seek1) ",
+				PagedQuery.addCondition("from User u", condition));
+		// 原有条件加括号, or不会与新条件混在一起
+		assertEquals("from User u where ( u.a = 1 or u.b = 2) and (u.id > :seek1) ",
+				PagedQuery.addCondition("from User u where u.a = 1 or u.b = 2",
+						condition));
+		// 条件加在group by之前
+		assertEquals("from User u  where (u.id > :seek1) group by u.id",
+				PagedQuery.addCondition("from User u group by u.id", condition));
+		assertEquals("from User u WHERE ( u.a = 1 ) and (u.id > :seek1) GROUP BY u.id",
+				PagedQuery.addCondition("from User u WHERE u.a = 1 GROUP BY u.id",
+						condition));
+	}
+
+	@Test
+	public void testRemoveSelect() {
+		assertEquals("from User u where u.a = 1",
+				PagedQuery.removeSelect("select u.name from User u where u.a = 1"));
+	}
+
+	@Test
+	public void testOf() {
+		String ql = "select u from User u where u.a = 1";
+		PagedQuery query = PagedQuery.of(ql, "u.name", false, false);
+		assertEquals("select count(*) from User u where u.a = 1",
+				query.getCountQlString());
+		assertEquals(ql + " order by u.name", query.getQlString());
+		assertNull(query.getKeyset());
+		assertSame(query, PagedQuery.of(ql, "u.name", false, false));
+
+		// keyset分页去掉原有的排序, 按orderBy排序
+		ql = "select u from User u where u.a = 1 order by u.name";
+
+		query = PagedQuery.of(ql, "u.createAt desc, u.id desc", true, true);
+		assertEquals("select u from User u where ( u.a = 1 ) and"
+				+ " (u.createAt < :seek1 or (u.createAt = :seek1 and u.id < :seek2))"
+				+ "  order by u.createAt desc, u.id desc", query.getQlString());
+		// 第一页没有seek条件
+		assertEquals("select u from User u where u.a = 1 "
+				+ " order by u.createAt desc, u.id desc",
+				PagedQuery.of(ql, "u.createAt desc, u.id desc", true, false)
+						.getQlString());
+	}
+}
@@ -0,0 +1,11 @@
+package com.isharec.framework.dao;
+
+import org.springframework.stereotype.Repository;
+
+import com.isharec.framework.base.persistence.BaseDao;
+import com.isharec.framework.entity.BatchItem;
+
+@Repository
+public class BatchItemDao extends BaseDao<BatchItem> {
+
+}
@@ -0,0 +1,67 @@
+package com.isharec.framework.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.transaction.TransactionConfiguration;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.isharec.framework.entity.BatchItem;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:/spring-hibernate*.xml",
+		"classpath*:/spring-mvc*.xml" })
+@TransactionConfiguration(transactionManager = "transactionManager")
+@Transactional
+public class BatchItemDaoTest {
+	private static final int ROWS = 1000;
+
+	@Autowired
+	private BatchItemDao batchItemDao;
+
+	/**
+	 * PooledIdEntity的insert成批执行: 每批只准备一次语句, 逐条执行时每个实体准备一次.
+	 * 预编译语句数包括id_generator的查询和更新, 每50个主键一次.
+	 */
+	@Test
+	public void testSaveBatchBatchesInserts() {
+		Statistics statistics = batchItemDao.getSession().getSessionFactory()
+				.getStatistics();
+		String countSql = "select count(*) from f_test_batch_item";
+		int before = batchItemDao.getCountBySql(countSql, null);
+		boolean enabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+		try {
+			statistics.clear();
+			int count = batchItemDao.saveBatch(newItems());
+
+			assertEquals(ROWS, count);
+			assertEquals(ROWS, statistics.getEntityInsertCount());
+			long prepared = statistics.getPrepareStatementCount();
+			assertTrue(prepared + " statements prepared for " + ROWS
+					+ " inserts", prepared < ROWS / 5);
+		} finally {
+			statistics.setStatisticsEnabled(enabled);
+		}
+		assertEquals(before + ROWS, batchItemDao.getCountBySql(countSql, null));
+	}
+
+	private List<BatchItem> newItems() {
+		List<BatchItem> list = new ArrayList<BatchItem>(ROWS);
+		for (int i = 0; i < ROWS; i++) {
+			BatchItem item = new BatchItem();
+			item.setName("item" + i);
+			list.add(item);
+		}
+		return list;
+	}
+}
@@ -0,0 +1,134 @@
+package com.isharec.framework.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.HibernateException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.transaction.TransactionConfiguration;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.isharec.framework.base.persistence.RowCallback;
+import com.isharec.framework.entity.Dict;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = { "classpath*:/spring-hibernate*.xml",
+		"classpath*:/spring-mvc*.xml" })
+@TransactionConfiguration(transactionManager = "transactionManager")
+@Transactional
+public class DictDaoTest {
+	private static final int ROWS = 3000;
+	// BaseDao逐行处理时清空Session的间隔
+	private static final int MAX_SESSION_ENTITIES = 1000;
+
+	private static final int BATCH_ROWS = 10000;
+
+	@Autowired
+	private DictDao dictDao;
+
+	/**
+	 * 批量保存后数据全部写入, Session被清空.
+	 */
+	@Test
+	public void testSaveBatch() {
+		String countSql = "select count(*) from f_dict";
+		int before = dictDao.getCountBySql(countSql, null);
+
+		int count = dictDao.saveBatch(newDicts());
+
+		assertEquals(BATCH_ROWS, count);
+		assertEquals(before + BATCH_ROWS, dictDao.getCountBySql(countSql, null));
+		assertEquals(0, dictDao.getSession().getStatistics().getEntityCount());
+	}
+
+	private List<Dict> newDicts() {
+		List<Dict> list = new ArrayList<Dict>(BATCH_ROWS);
+		for (int i = 0; i < BATCH_ROWS; i++) {
+			Dict dict = new Dict();
+			dict.setName("name" + i);
+			dict.setValue("value" + i);
+			list.add(dict);
+		}
+		return list;
+	}
+
+	/**
+	 * 逐行处理时Session中的实体数不随行数增加, 每处理1000行清空一次. 插入的数据在测试结束后回滚.
+	 */
+	@Test
+	public void testForEach() {
+		insertRows();
+
+		final int[] maxEntities = new int[1];
+		int count = dictDao.forEach("from Dict", null, new RowCallback<Dict>() {
+			public void handle(Dict row) {
+				maxEntities[0] = Math.max(maxEntities[0], dictDao.getSession()
+						.getStatistics().getEntityCount());
+			}
+		});
+
+		assertTrue(count >= ROWS);
+		assertTrue("session held " + maxEntities[0] + " entities",
+				maxEntities[0] <= MAX_SESSION_ENTITIES);
+	}
+
+	/**
+	 * QL, Criteria和SQL逐行处理时都使用流式结果集. MySQL驱动在流式结果集读完之前拒绝同一连接上的其他查询,
+	 * 一次读入整个结果集时则可以查询, 由此判断结果集是否为流式的, 与行数和堆大小无关.
+	 */
+	@Test
+	public void testForEachStreams() {
+		insertRows();
+		StreamingCheck<Dict> ql = new StreamingCheck<Dict>();
+		assertTrue(dictDao.forEach("from Dict", null, ql) >= ROWS);
+		assertTrue(ql.rejected);
+
+		StreamingCheck<Dict> criteria = new StreamingCheck<Dict>();
+		assertTrue(dictDao.forEach(criteria) >= ROWS);
+		assertTrue(criteria.rejected);
+
+		StreamingCheck<Object> sql = new StreamingCheck<Object>();
+		assertTrue(dictDao.forEachBySql("select id from f_dict", null, null,
+				sql) >= ROWS);
+		assertTrue(sql.rejected);
+	}
+
+	private void insertRows() {
+		for (int i = 0; i < ROWS; i++) {
+			Dict dict = new Dict();
+			dict.setName("name" + i);
+			dict.setValue("value" + i);
+			dictDao.save(dict);
+		}
+		dictDao.flush();
+		dictDao.clear();
+	}
+
+	/**
+	 * 在读取第一行时执行另一个查询, 流式结果集还未读完, 应当被驱动拒绝.
+	 */
+	private class StreamingCheck<E> implements RowCallback<E> {
+		private boolean checked;
+		boolean rejected;
+
+		public void handle(E row) {
+			if (checked) {
+				return;
+			}
+			checked = true;
+			try {
+				dictDao.getSession().createSQLQuery("select 1").uniqueResult();
+			} catch (HibernateException e) {
+				// Streaming result set ... is still active
+				rejected = true;
+			}
+		}
+	}
+}
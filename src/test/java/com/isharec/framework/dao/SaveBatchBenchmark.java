@@ -0,0 +1,97 @@
+package com.isharec.framework.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.orm.hibernate4.HibernateTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.isharec.framework.base.persistence.AbstractEntity;
+import com.isharec.framework.base.persistence.BaseDao;
+import com.isharec.framework.entity.BatchItem;
+import com.isharec.framework.entity.Dict;
+
+/**
+ * 逐个保存与saveBatch对比耗时, 手动运行, 不作为单元测试. 需要jdbc.properties中配置的数据库, 每轮的数据都会回滚.
+ *
+ * Dict使用自增主键, insert不能成批执行; BatchItem使用PooledIdEntity, 可以看到成批插入的效果.
+ */
+public class SaveBatchBenchmark {
+
+	private static final int ROWS = 10000;
+
+	public static void main(String[] args) {
+		ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext(
+				"classpath*:/spring-hibernate*.xml", "classpath*:/spring-mvc*.xml");
+		try {
+			TransactionTemplate transaction = new TransactionTemplate(
+					context.getBean(HibernateTransactionManager.class));
+			DictDao dictDao = context.getBean(DictDao.class);
+			BatchItemDao batchItemDao = context.getBean(BatchItemDao.class);
+			// 第一轮预热
+			for (int round = 0; round < 2; round++) {
+				for (boolean batch : new boolean[] { false, true }) {
+					long dict = run(transaction, dictDao, newDicts(), batch);
+					long item = run(transaction, batchItemDao, newItems(),
+							batch);
+					if (round > 0) {
+						System.out.println((batch ? "saveBatch" : "save loop")
+								+ ": Dict " + dict / 1000000 + "ms, BatchItem "
+								+ item / 1000000 + "ms for " + ROWS + " rows");
+					}
+				}
+			}
+		} finally {
+			context.close();
+		}
+	}
+
+	/**
+	 * 在回滚的事务中保存, 返回耗时(纳秒).
+	 */
+	private static <T extends AbstractEntity<T>> long run(
+			TransactionTemplate transaction, final BaseDao<T> dao,
+			final List<T> entities, final boolean batch) {
+		return transaction.execute(new TransactionCallback<Long>() {
+			public Long doInTransaction(TransactionStatus status) {
+				status.setRollbackOnly();
+				long start = System.nanoTime();
+				if (batch) {
+					dao.saveBatch(entities);
+				} else {
+					for (T entity : entities) {
+						dao.save(entity);
+					}
+					dao.flush();
+				}
+				long elapsed = System.nanoTime() - start;
+				dao.clear();
+				return elapsed;
+			}
+		});
+	}
+
+	private static List<Dict> newDicts() {
+		List<Dict> list = new ArrayList<Dict>(ROWS);
+		for (int i = 0; i < ROWS; i++) {
+			Dict dict = new Dict();
+			dict.setName("name" + i);
+			dict.setValue("value" + i);
+			list.add(dict);
+		}
+		return list;
+	}
+
+	private static List<BatchItem> newItems() {
+		List<BatchItem> list = new ArrayList<BatchItem>(ROWS);
+		for (int i = 0; i < ROWS; i++) {
+			BatchItem item = new BatchItem();
+			item.setName("item" + i);
+			list.add(item);
+		}
+		return list;
+	}
+}
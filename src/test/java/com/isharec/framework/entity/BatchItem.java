@@ -0,0 +1,28 @@
+package com.isharec.framework.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+import com.isharec.framework.base.persistence.PooledIdEntity;
+
+/**
+ * 测试批量插入用的实体, 主键由id_generator分配. 表由hbm2ddl创建, 只在测试中使用.
+ */
+@Entity
+@Table(name = "f_test_batch_item")
+public class BatchItem extends PooledIdEntity<BatchItem> {
+
+	private static final long serialVersionUID = 1L;
+
+	@Column
+	private String name;
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+}
@@ -0,0 +1,166 @@
+package com.isharec.framework.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.isharec.framework.filter.CookieBasedSessionStore.CodecException;
+
+public class BinarySessionSerializerTest {
+
+	private final BinarySessionSerializer serializer = new BinarySessionSerializer();
+
+	@Test
+	public void testNullAndBoolean() {
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("null", null);
+		data.put("true", true);
+		data.put("false", false);
+		Map<String, Object> result = roundTrip(data);
+		assertEquals(data, result);
+		assertNull(result.get("null"));
+	}
+
+	@Test
+	public void testIntBoundaries() {
+		int[] values = { 0, 1, -1, 63, -64, 64, -65, 127, 128, 8191, 8192,
+				-8192, -8193, Short.MAX_VALUE, Short.MIN_VALUE,
+				Integer.MAX_VALUE, Integer.MIN_VALUE };
+		for (int value : values) {
+			Object result = roundTripValue(value);
+			assertEquals(Integer.class, result.getClass());
+			assertEquals(value, result);
+		}
+		// Short和Byte按int保存
+		assertEquals(-3, roundTripValue((short) -3));
+		assertEquals(7, roundTripValue((byte) 7));
+	}
+
+	@Test
+	public void testLongBoundaries() {
+		long[] values = { 0L, -1L, 1L << 35, -(1L << 35), (1L << 56) - 1,
+				1L << 56, 1L << 62, -(1L << 62),
+				(long) Integer.MAX_VALUE + 1, (long) Integer.MIN_VALUE - 1,
+				Long.MAX_VALUE, Long.MIN_VALUE };
+		for (long value : values) {
+			Object result = roundTripValue(value);
+			assertEquals(Long.class, result.getClass());
+			assertEquals(value, result);
+		}
+	}
+
+	@Test
+	public void testDoubleAndString() {
+		assertEquals(-0.5d, roundTripValue(-0.5d));
+		assertEquals(Double.NaN, roundTripValue(Double.NaN));
+		assertEquals(1.5d, roundTripValue(1.5f));
+		assertEquals("", roundTripValue(""));
+		assertEquals("中文 and ascii", roundTripValue("中文 and ascii"));
+	}
+
+	@Test
+	public void testDate() {
+		Date[] dates = { new Date(0), new Date(-86400000L * 365),
+				new Date(1792337877598L) };
+		for (Date date : dates) {
+			assertEquals(date, roundTripValue(date));
+		}
+	}
+
+	@Test
+	public void testNested() {
+		Map<String, Object> inner = new LinkedHashMap<String, Object>();
+		inner.put("id", 42L);
+		inner.put("tags", Arrays.asList("a", null, 1));
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("user", inner);
+		data.put("list", Arrays.<Object> asList(inner, Arrays.asList(1, 2)));
+		data.put("array", new int[] { 3, 4 });
+
+		Map<String, Object> result = roundTrip(data);
+		assertEquals(inner, result.get("user"));
+		assertEquals(Arrays.<Object> asList(inner, Arrays.asList(1, 2)),
+				result.get("list"));
+		assertEquals(Arrays.asList(3, 4), result.get("array"));
+	}
+
+	@Test
+	public void testKeepsOrder() {
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		for (int i = 20; i > 0; i--) {
+			data.put("k" + i, i);
+		}
+		List<String> keys = Arrays.asList(roundTrip(data).keySet().toArray(
+				new String[0]));
+		assertEquals(Arrays.asList(data.keySet().toArray(new String[0])), keys);
+	}
+
+	@Test
+	public void testOffset() {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("uid", 1);
+		byte[] bytes = serializer.serialize(data);
+		byte[] padded = new byte[bytes.length + 5];
+		System.arraycopy(bytes, 0, padded, 3, bytes.length);
+		assertEquals(data, serializer.deserialize(padded, 3, bytes.length));
+	}
+
+	@Test
+	public void testRejectsTruncated() {
+		Map<String, Object> data = new LinkedHashMap<String, Object>();
+		data.put("message", "hello");
+		data.put("time", Long.MAX_VALUE);
+		byte[] bytes = serializer.serialize(data);
+		for (int length = 0; length < bytes.length; length++) {
+			assertRejected(bytes, length);
+		}
+	}
+
+	@Test
+	public void testRejectsTrailingBytes() {
+		byte[] bytes = serializer.serialize(new HashMap<String, Object>());
+		assertRejected(Arrays.copyOf(bytes, bytes.length + 1),
+				bytes.length + 1);
+	}
+
+	@Test
+	public void testRejectsUnknownTag() {
+		// 一个元素, 键为"a", 类型标记为99
+		assertRejected(new byte[] { 1, 1, 'a', 99 }, 4);
+	}
+
+	@Test
+	public void testRejectsOversizedLength() {
+		// 字符串长度超过剩余字节数
+		assertRejected(new byte[] { 1, 100, 'a' }, 3);
+	}
+
+	private Object roundTripValue(Object value) {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("v", value);
+		return roundTrip(data).get("v");
+	}
+
+	private Map<String, Object> roundTrip(Map<String, Object> data) {
+		byte[] bytes = serializer.serialize(data);
+		return serializer.deserialize(bytes, 0, bytes.length);
+	}
+
+	private void assertRejected(byte[] bytes, int length) {
+		try {
+			serializer.deserialize(bytes, 0, length);
+			fail("accepted " + length + " bytes");
+		} catch (CodecException e) {
+			// 预期的异常
+		}
+	}
+}
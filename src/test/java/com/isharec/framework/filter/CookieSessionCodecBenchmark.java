@@ -0,0 +1,198 @@
+package com.isharec.framework.filter;
+
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.google.common.base.Charsets;
+import com.isharec.framework.filter.CookieBasedSessionStore.Codec;
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Cookie会话编解码的耗时和分配量, 手动运行, 不作为单元测试. 分配量需要HotSpot的ThreadMXBean.
+ *
+ * 同时与原来每次编解码都新建ObjectMapper和Mac的实现对比.
+ */
+public class CookieSessionCodecBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		byte[] secret = "1234klsf9rieiowrjjsdf".getBytes();
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("uid", 1);
+		data.put("message", "hello, world!");
+		data.put("updated", new Date());
+
+		for (SessionSerializer serializer : new SessionSerializer[] {
+				new BinarySessionSerializer(), new JsonSessionSerializer() }) {
+			Codec codec = new Codec(secret, serializer);
+
+			for (boolean ignoreSign : new boolean[] { true, false }) {
+				String result = codec.encode(data, ignoreSign);
+				System.out.println(serializer.getClass().getSimpleName()
+						+ " encoded result: " + result + ", length: "
+						+ result.length() + ", ignoreSign: " + ignoreSign);
+
+				Map<String, Object> decoded = codec.decode(result, ignoreSign);
+				System.out.println(decoded);
+			}
+		}
+
+		// 校验耗时: 当前密钥签名的cookie, 以及更换密钥后由旧密钥签名的cookie
+		byte[] newSecret = "9sdfklj23lkjsdf98rwe".getBytes();
+		Codec rotated = new Codec(Arrays.asList(newSecret, secret),
+				new BinarySessionSerializer());
+		String current = rotated.encode(data, false);
+		String old = new Codec(secret).encode(data, false);
+		// HotSpot提供线程分配的字节数, 用于估计每次编解码的分配量
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		for (String value : new String[] { current, old }) {
+			int n = 100000;
+			for (int i = 0; i < n; i++) {
+				rotated.decodePayload(value, false);
+			}
+			long allocated = threads.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				rotated.decodePayload(value, false);
+			}
+			System.out.println((value == current ? "current" : "old")
+					+ " key verify: " + (System.nanoTime() - start) / n
+					+ "ns/op, "
+					+ (threads.getThreadAllocatedBytes(threadId) - allocated)
+					/ n + "B/op");
+		}
+		int n = 100000;
+		long allocated = threads.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < n; i++) {
+			rotated.encode(data, false);
+		}
+		System.out.println("encode: "
+				+ (threads.getThreadAllocatedBytes(threadId) - allocated) / n
+				+ "B/op");
+
+		// 每个请求解码一次, 编码一次
+		LegacyCodec legacy = new LegacyCodec(secret);
+		Codec json = new Codec(secret, new JsonSessionSerializer());
+		Codec binary = new Codec(secret, new BinarySessionSerializer());
+		for (int round = 0; round < 2; round++) {
+			// 第一轮预热
+			boolean print = round > 0;
+			String value = legacy.encode(data, false);
+			allocated = threads.getThreadAllocatedBytes(threadId);
+			long start = System.nanoTime();
+			for (int i = 0; i < n; i++) {
+				legacy.encode(legacy.decode(value, false), false);
+			}
+			report(print, "legacy per-call ObjectMapper/Mac", start, n,
+					threads.getThreadAllocatedBytes(threadId) - allocated);
+			for (Codec codec : new Codec[] { json, binary }) {
+				value = codec.encode(data, false);
+				allocated = threads.getThreadAllocatedBytes(threadId);
+				start = System.nanoTime();
+				for (int i = 0; i < n; i++) {
+					codec.encode(codec.decode(value, false), false);
+				}
+				report(print, "shared codec, "
+						+ (codec == json ? "json" : "binary"), start, n,
+						threads.getThreadAllocatedBytes(threadId) - allocated);
+			}
+		}
+	}
+
+	private static void report(boolean print, String name, long start, int n,
+			long allocated) {
+		if (print) {
+			System.out.println(name + " decode+encode: "
+					+ (System.nanoTime() - start) / n + "ns/op, " + allocated
+					/ n + "B/op");
+		}
+	}
+
+	/**
+	 * 复用ObjectMapper和Mac之前的编解码, 仅用于对比.
+	 */
+	private static class LegacyCodec {
+		private final byte[] secret;
+		private final byte[] mask;
+		private final Charset encoding = Charsets.UTF_8;
+
+		LegacyCodec(byte[] secret) {
+			this.secret = secret;
+			this.mask = secret;
+		}
+
+		String encode(Map<String, Object> data, boolean ignoreSign) {
+			String value = serialize(data);
+			if (!ignoreSign) {
+				value = doSign(value) + "--" + value;
+			}
+			return Base64.encodeBase64String(doMask(value.getBytes(encoding)));
+		}
+
+		Map<String, Object> decode(String value, boolean ignoreSign) {
+			byte[] data = doMask(Base64.decodeBase64(value.getBytes(encoding)));
+			String s = new String(data, encoding);
+			if (ignoreSign) {
+				return unserialize(s);
+			}
+			String[] parts = s.split("--", 2);
+			if (parts.length == 2 && parts[0].equals(doSign(parts[1]))) {
+				return unserialize(parts[1]);
+			}
+			return new HashMap<String, Object>();
+		}
+
+		private byte[] doMask(byte[] input) {
+			byte[] result = new byte[input.length];
+			int j = 0;
+			for (int i = 0; i < input.length; i++) {
+				result[i] = (byte) (input[i] ^ mask[j]);
+				j = (j + 1) % mask.length;
+			}
+			return result;
+		}
+
+		private String doSign(String value) {
+			try {
+				Mac mac = Mac.getInstance("HmacSHA256");
+				mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+				return Base64.encodeBase64String(mac.doFinal(value
+						.getBytes(encoding)));
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private String serialize(Map<String, Object> data) {
+			try {
+				StringWriter writer = new StringWriter();
+				new ObjectMapper().writeValue(writer, data);
+				return writer.toString();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private Map<String, Object> unserialize(String value) {
+			try {
+				return new ObjectMapper().readValue(value, HashMap.class);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+package com.isharec.framework.filter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.isharec.framework.filter.CookieBasedSessionStore.Codec;
+import com.isharec.framework.filter.CookieBasedSessionStore.Payload;
+
+public class CookieSessionCodecTest {
+
+	private static final byte[] SECRET = "1234klsf9rieiowrjjsdf".getBytes();
+
+	private final Codec codec = new Codec(SECRET);
+
+	@Test
+	public void testRoundTrip() {
+		Map<String, Object> data = data();
+		for (boolean ignoreSign : new boolean[] { true, false }) {
+			String value = codec.encode(data, ignoreSign);
+			Payload payload = codec.decodePayload(value, ignoreSign);
+			assertTrue(payload.isValid());
+			assertEquals(data, payload.getData());
+		}
+	}
+
+	@Test
+	public void testDecodeVersion1() throws Exception {
+		Map<String, Object> data = data();
+		byte[] body = new BinarySessionSerializer().serialize(data);
+		int issuedAt = 1700000000;
+		byte[] header = { 1, BinarySessionSerializer.ID, 0,
+				(byte) (issuedAt >>> 24), (byte) (issuedAt >>> 16),
+				(byte) (issuedAt >>> 8), (byte) issuedAt };
+
+		// 签名覆盖头部和内容
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(SECRET, "HmacSHA256"));
+		mac.update(header);
+		byte[] sign = mac.doFinal(body);
+		String signed = encode(concat(header, sign, body));
+		Payload payload = codec.decodePayload(signed, false);
+		assertTrue(payload.isValid());
+		assertEquals(data, payload.getData());
+		assertEquals(issuedAt * 1000L, payload.getIssuedAt());
+
+		String unsigned = encode(concat(header, body));
+		assertEquals(data, codec.decode(unsigned, true));
+	}
+
+	@Test
+	public void testDecodeLegacy() throws Exception {
+		String json = "{\"uid\":1,\"message\":\"hello, world!\"}";
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(SECRET, "HmacSHA256"));
+		String sign = Base64.encodeBase64String(mac.doFinal(json
+				.getBytes(Charsets.UTF_8)));
+
+		Map<String, Object> expected = new HashMap<String, Object>();
+		expected.put("uid", 1);
+		expected.put("message", "hello, world!");
+		// 旧版cookie使用带填充的标准Base64
+		String signed = Base64.encodeBase64String(mask((sign + "--" + json)
+				.getBytes(Charsets.UTF_8)));
+		assertEquals(expected, codec.decode(signed, false));
+		String unsigned = Base64.encodeBase64String(mask(json
+				.getBytes(Charsets.UTF_8)));
+		assertEquals(expected, codec.decode(unsigned, true));
+
+		String forged = Base64.encodeBase64String(mask((sign + "--" + json
+				.replace('1', '2')).getBytes(Charsets.UTF_8)));
+		assertTrue(codec.decode(forged, false).isEmpty());
+	}
+
+	@Test
+	public void testRejectsTruncated() {
+		for (boolean ignoreSign : new boolean[] { true, false }) {
+			String value = codec.encode(data(), ignoreSign);
+			for (int length = 0; length < value.length(); length++) {
+				Payload payload = codec.decodePayload(
+						value.substring(0, length), ignoreSign);
+				assertFalse(payload.isValid());
+				assertTrue(payload.getData().isEmpty());
+			}
+		}
+	}
+
+	@Test
+	public void testRejectsUnknownVersion() throws Exception {
+		for (boolean ignoreSign : new boolean[] { true, false }) {
+			String value = codec.encode(data(), ignoreSign);
+			byte[] bytes = mask(Base64.decodeBase64(value));
+			for (int version : new int[] { 0, 3, 0x7F }) {
+				bytes[0] = (byte) version;
+				Payload payload = codec.decodePayload(encode(bytes),
+						ignoreSign);
+				assertFalse(payload.isValid());
+				assertTrue(payload.getData().isEmpty());
+			}
+		}
+	}
+
+	@Test
+	public void testBase64SameAsCommonsCodec() {
+		Random random = new Random(0);
+		// 输入长度覆盖模3的各种余数, 即输出长度模4为0, 2, 3
+		for (int length = 0; length <= 64; length++) {
+			byte[] bytes = new byte[length];
+			random.nextBytes(bytes);
+			String encoded = Codec.encodeBase64(bytes, length,
+					new char[(length + 2) / 3 * 4]);
+			assertEquals(Base64.encodeBase64URLSafeString(bytes), encoded);
+
+			// URL安全的和带填充的标准Base64都能解码
+			assertArrayEquals(bytes, decodeBase64(encoded));
+			assertArrayEquals(bytes,
+					decodeBase64(Base64.encodeBase64String(bytes)));
+		}
+	}
+
+	@Test
+	public void testBase64DecodeSameAsCommonsCodec() {
+		Random random = new Random(0);
+		String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_+/";
+		// 长度模4为1时多出的字符不足一个字节, 与commons-codec一样忽略
+		for (int length = 0; length <= 64; length++) {
+			StringBuilder value = new StringBuilder();
+			for (int i = 0; i < length; i++) {
+				value.append(chars.charAt(random.nextInt(chars.length())));
+			}
+			assertArrayEquals(value.toString(),
+					Base64.decodeBase64(value.toString()),
+					decodeBase64(value.toString()));
+		}
+	}
+
+	@Test
+	public void testBase64DecodeSegments() {
+		byte[] bytes = "hello, cookie session".getBytes(Charsets.UTF_8);
+		String encoded = Base64.encodeBase64URLSafeString(bytes);
+		// 分段的边界不必在4个字符处
+		for (int split = 0; split <= encoded.length(); split++) {
+			String[] values = { encoded.substring(0, split),
+					encoded.substring(split) };
+			byte[] out = new byte[bytes.length + 1];
+			int length = Codec.decodeBase64(values, out);
+			assertArrayEquals(bytes, Arrays.copyOf(out, length));
+		}
+	}
+
+	@Test
+	public void testBase64RejectsInvalidCharacters() {
+		for (String value : new String[] { "ab!c", "ab.c", "ab c", "中文" }) {
+			assertEquals(value, -1,
+					Codec.decodeBase64(new String[] { value }, new byte[8]));
+			Payload payload = codec.decodePayload(value, true);
+			assertFalse(payload.isValid());
+			assertTrue(payload.getData().isEmpty());
+		}
+	}
+
+	@Test
+	public void testRejectsTampered() {
+		String value = codec.encode(data(), false);
+		byte[] bytes = Base64.decodeBase64(value);
+		// 依次修改每个字节, 包括头部, 签名和内容
+		for (int i = 0; i < bytes.length; i++) {
+			for (int bit = 0; bit < 8; bit++) {
+				byte[] tampered = Arrays.copyOf(bytes, bytes.length);
+				tampered[i] ^= 1 << bit;
+				Payload payload = codec.decodePayload(
+						Base64.encodeBase64URLSafeString(tampered), false);
+				assertFalse(i + ":" + bit, payload.isValid());
+				assertTrue(payload.getData().isEmpty());
+			}
+		}
+	}
+
+	private static Map<String, Object> data() {
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("uid", 1);
+		data.put("message", "hello, world!");
+		data.put("time", 1792337877598L);
+		return data;
+	}
+
+	/**
+	 * 掩码后用URL安全的Base64编码, 与Codec的输出格式相同.
+	 */
+	private static String encode(byte[] data) {
+		return Base64.encodeBase64URLSafeString(mask(data));
+	}
+
+	/**
+	 * 用密钥作为掩码按字节异或, 再做一次即还原.
+	 */
+	private static byte[] mask(byte[] data) {
+		byte[] result = Arrays.copyOf(data, data.length);
+		for (int i = 0; i < result.length; i++) {
+			result[i] ^= SECRET[i % SECRET.length];
+		}
+		return result;
+	}
+
+	private static byte[] decodeBase64(String value) {
+		byte[] out = new byte[value.length() * 3 / 4 + 1];
+		int length = Codec.decodeBase64(new String[] { value }, out);
+		return Arrays.copyOf(out, length);
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		int length = 0;
+		for (byte[] part : parts) {
+			length += part.length;
+		}
+		byte[] result = new byte[length];
+		int offset = 0;
+		for (byte[] part : parts) {
+			System.arraycopy(part, 0, result, offset, part.length);
+			offset += part.length;
+		}
+		return result;
+	}
+}
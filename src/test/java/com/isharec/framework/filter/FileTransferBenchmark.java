@@ -0,0 +1,74 @@
+package com.isharec.framework.filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import com.google.common.io.Files;
+import com.sun.management.ThreadMXBean;
+
+/**
+ * 静态文件输出与原来的Files.copy循环对比耗时和分配量, 手动运行, 不作为单元测试. 分配量需要HotSpot的ThreadMXBean.
+ *
+ * 输出到丢弃内容的流, 只比较读文件和复制的开销; sendfile由容器完成, 不在这里比较.
+ */
+public class FileTransferBenchmark {
+
+	private static final int[] SIZES = { 4 * 1024, 256 * 1024,
+			4 * 1024 * 1024 };
+	private static final long TOTAL_BYTES = 2L * 1024 * 1024 * 1024;
+
+	private static final OutputStream NULL_OUTPUT = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		Random random = new Random(0);
+		for (int size : SIZES) {
+			byte[] content = new byte[size];
+			random.nextBytes(content);
+			File file = File.createTempFile("transfer", ".bin");
+			try {
+				Files.write(content, file);
+				int n = (int) Math.max(100, TOTAL_BYTES / size);
+				for (boolean baseline : new boolean[] { true, false }) {
+					run(file, size, n, baseline);
+					long allocated = threads.getThreadAllocatedBytes(threadId);
+					long start = System.nanoTime();
+					run(file, size, n, baseline);
+					long elapsed = System.nanoTime() - start;
+					System.out.println((baseline ? "Files.copy" : "FileTransfer")
+							+ " " + size / 1024 + "KB: " + elapsed / n / 1000
+							+ "us/op, "
+							+ (threads.getThreadAllocatedBytes(threadId) - allocated)
+							/ n + "B/op");
+				}
+			} finally {
+				file.delete();
+			}
+		}
+	}
+
+	private static void run(File file, int size, int n, boolean baseline)
+			throws IOException {
+		for (int i = 0; i < n; i++) {
+			if (baseline) {
+				Files.copy(file, NULL_OUTPUT);
+			} else {
+				FileTransfer.transfer(file, 0, size, NULL_OUTPUT);
+			}
+		}
+	}
+
+}
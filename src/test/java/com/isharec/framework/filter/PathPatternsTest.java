@@ -0,0 +1,175 @@
+package com.isharec.framework.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.apache.shiro.util.AntPathMatcher;
+import org.apache.shiro.web.filter.mgt.DefaultFilterChainManager;
+import org.apache.shiro.web.filter.mgt.FilterChainResolver;
+import org.apache.shiro.web.filter.mgt.PathMatchingFilterChainResolver;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.isharec.framework.security.TrieFilterChainResolver;
+
+public class PathPatternsTest {
+
+	// spring-shiro.xml中的filterChainDefinitions, 顺序相同
+	private static final String[][] CHAINS = { { "/assets/**", "anon" },
+			{ "/userfiles/**", "anon" }, { "/login", "authc" },
+			{ "/logout", "logout" }, { "/monitor/**", "roles[admin]" },
+			{ "/**", "user" }, { "/menu/tree", "anon" } };
+
+	private static final List<String> PATTERNS = Arrays.asList("/a/b",
+			"/a/?", "/a/?x", "/a/*.js", "/a/*/c", "/a/b*", "/a/*b*",
+			"/a/**/d", "/**/e.css", "/f/**", "/g/*", "/h/**/i/**/j", "/k*",
+			"/l/??", "/*", "/**");
+
+	// 不以/结尾的路径, 结尾的/见testTrailingSlashInPath
+	private static final List<String> PATHS = Arrays.asList("/a", "/a/b", "/a/c", "/a/bx", "/a/cx", "/a/x.js", "/a/.js",
+			"/a/b/x.js", "/a/x/c", "/a/x/y/c", "/a/d", "/a/x/d",
+			"/a/x/y/z/d", "/e.css", "/q/r/e.css", "/f", "/f/x", "/f/x/y",
+			"/g", "/g/x", "/g/x/y", "/h/i/j", "/h/x/i/y/z/j", "/h/i/x",
+			"/k", "/kx", "/k/x", "/l/xy", "/l/xyz", "/l/x", "/m",
+			"/m/n/o", "/a//b", "//a/b", "/a/b//c");
+
+	private final AntPathMatcher ant = new AntPathMatcher();
+
+	@Test
+	public void testSameAsAntPathMatcher() {
+		// 依次去掉前面的模式, 检查每个模式都与AntPathMatcher一致, 而不只是第一个匹配的/a/b和/**
+		for (int from = 0; from < PATTERNS.size(); from++) {
+			List<String> patterns = PATTERNS.subList(from, PATTERNS.size());
+			PathPatterns trie = new PathPatterns(patterns);
+			for (String path : PATHS) {
+				assertEquals(patterns + " " + path, antIndexOf(patterns, path),
+						trie.indexOf(path));
+				assertEquals(trie.indexOf(path), trie.indexOfUncached(path));
+			}
+		}
+	}
+
+	/**
+	 * 路径末尾的/与没有/时相同, AntPathMatcher中 /login 不匹配 /login/, 可以借此绕过为/login配置的过滤器.
+	 */
+	@Test
+	public void testTrailingSlashInPath() {
+		PathPatterns trie = new PathPatterns(PATTERNS);
+		for (String path : PATHS) {
+			assertEquals(path, antIndexOf(PATTERNS, path),
+					trie.indexOf(path + "/"));
+		}
+		// 根路径没有路径段, 只匹配/**, 不像AntPathMatcher那样匹配/*
+		assertEquals(PATTERNS.indexOf("/**"), trie.indexOf("/"));
+		assertEquals(-1, new PathPatterns(Arrays.asList("/*")).indexOf("/"));
+	}
+
+	@Test
+	public void testTrailingSlashInPattern() {
+		PathPatterns prefix = new PathPatterns(Arrays.asList("/assets/"));
+		PathPatterns doubleStar = new PathPatterns(Arrays.asList("/assets/**"));
+		for (String path : Arrays.asList("/assets", "/assets/",
+				"/assets/a.js", "/assets/x/y.css", "/assetsx", "/x/assets")) {
+			assertEquals(path, doubleStar.matches(path), prefix.matches(path));
+		}
+		assertTrue(prefix.matches("/assets/x/y.css"));
+		assertFalse(prefix.matches("/assetsx"));
+	}
+
+	@Test
+	public void testFirstMatch() {
+		PathPatterns trie = new PathPatterns(Arrays.asList("/**", "/a/b",
+				"/a/*"));
+		assertEquals(0, trie.indexOf("/a/b"));
+		trie = new PathPatterns(Arrays.asList("/a/*", "/a/b", "/**"));
+		assertEquals(0, trie.indexOf("/a/b"));
+		assertEquals(2, trie.indexOf("/a/b/c"));
+		assertEquals(-1, new PathPatterns(Arrays.asList("/a")).indexOf("/b"));
+	}
+
+	@Test
+	public void testMatchGlob() {
+		assertTrue(PathPatterns.matchGlob("*", ""));
+		assertTrue(PathPatterns.matchGlob("a*b*c", "aXbYbZc"));
+		assertFalse(PathPatterns.matchGlob("a*b*c", "aXbYbZ"));
+		assertTrue(PathPatterns.matchGlob("?*", "x"));
+		assertFalse(PathPatterns.matchGlob("?*", ""));
+		assertTrue(PathPatterns.matchGlob("**", "abc"));
+	}
+
+	@Test
+	public void testConfiguredChains() throws Exception {
+		DefaultFilterChainManager manager = new RecordingFilterChainManager();
+		for (String[] chain : CHAINS) {
+			manager.createChain(chain[0], chain[1]);
+		}
+		PathMatchingFilterChainResolver shiro = new PathMatchingFilterChainResolver();
+		shiro.setFilterChainManager(manager);
+		TrieFilterChainResolver trie = new TrieFilterChainResolver();
+		trie.setFilterChainManager(manager);
+
+		for (String path : Arrays.asList("/", "/assets/ace/ace.js",
+				"/assets", "/userfiles/1/a.png", "/login", "/logout",
+				"/menu/tree", "/menu/tree/1", "/monitor", "/monitor/",
+				"/monitor/cookie-session", "/sys/user/list", "/x.jsp")) {
+			assertEquals(path, resolve(shiro, path), resolve(trie, path));
+		}
+		// /menu/tree在/**之后定义, 仍然由/**匹配
+		assertEquals("/**", resolve(trie, "/menu/tree"));
+		assertEquals("/assets/**", resolve(trie, "/assets/ace/ace.js"));
+		assertEquals("/login", resolve(trie, "/login"));
+		assertEquals("/login", resolve(trie, "/login/"));
+		assertEquals("/monitor/**", resolve(trie, "/monitor/cookie-session"));
+	}
+
+	private int antIndexOf(List<String> patterns, String path) {
+		for (int i = 0; i < patterns.size(); i++) {
+			if (ant.match(patterns.get(i), path)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String resolve(FilterChainResolver resolver, String path) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET",
+				path);
+		FilterChain chain = resolver.getChain(request,
+				new MockHttpServletResponse(), null);
+		return chain == null ? null : ((NamedChain) chain).name;
+	}
+
+	/**
+	 * 记录解析到的过滤器链名称.
+	 */
+	private static class RecordingFilterChainManager extends
+			DefaultFilterChainManager {
+		@Override
+		public FilterChain proxy(FilterChain original, String chainName) {
+			return new NamedChain(chainName);
+		}
+	}
+
+	private static class NamedChain implements FilterChain {
+		final String name;
+
+		NamedChain(String name) {
+			this.name = name;
+		}
+
+		public void doFilter(ServletRequest request, ServletResponse response)
+				throws IOException, ServletException {
+		}
+	}
+}